@@ -0,0 +1,84 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link BandMixing} reducers on one block of cells, comparing the scalar reducer with the one
+ * chosen at runtime (vectorized when {@code jdk.incubator.vector} is available), and a band algebra
+ * expression. In the component package to reach the scalar reducer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BandMixingBenchmark {
+
+  @Param({"4096", "65536"})
+  public int cells;
+
+  @Param({"2", "4", "8"})
+  public int bands;
+
+  @Param({"MAX_VALUE", "AVG_VALUE", "BAND_MAX_VALUE"})
+  public BandMixing.Operation operation;
+
+  /** Fraction of nodata (NaN) samples in each band. */
+  @Param({"0.0", "0.2"})
+  public double nodata;
+
+  private double[][] planes;
+  private double[] output;
+  private BandMixing.Reducer scalar;
+  private BandMixing.Reducer runtime;
+  private BandMixing.Mixer expression;
+
+  @Setup
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(42);
+    planes = new double[bands][cells];
+    for (double[] plane : planes) {
+      for (int i = 0; i < cells; i++) {
+        plane[i] = random.nextDouble() < nodata ? Double.NaN : random.nextDouble() * 1000.0;
+      }
+    }
+    output = new double[cells];
+    scalar = new BandMixing.ScalarReducer();
+    runtime = BandMixing.getReducer();
+    expression = BandMixing.Mixer.parse("(b2 - b1) / (b2 + b1)", bands).orElseThrow();
+  }
+
+  @Benchmark
+  public double[] scalarReducer() {
+    scalar.reduce(operation, planes, cells, output);
+    return output;
+  }
+
+  @Benchmark
+  public double[] runtimeReducer() {
+    runtime.reduce(operation, planes, cells, output);
+    return output;
+  }
+
+  /** A normalized difference over the first two bands; the operation parameter is ignored. */
+  @Benchmark
+  public double[] expressionMixer() {
+    expression.mix(planes, cells, output);
+    return output;
+  }
+}
@@ -0,0 +1,241 @@
+package org.integratedmodelling.geospatial.benchmarks;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import org.eclipse.imagen.RasterFactory;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.integratedmodelling.geospatial.adapters.raster.RasterEncoder;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+import org.integratedmodelling.klab.api.scope.ContextScope;
+import org.mockito.MockMakers;
+
+/**
+ * Synthetic rasters, grids and stand-ins for the runtime objects used by the benchmarks. Scanners
+ * are mocked with the subclass mock maker, which leaves their final methods alone, so that writing
+ * and reading cells costs a plain call while everything else (shard, fill curve) is stubbed.
+ */
+public final class BenchmarkSupport {
+
+  /** WGS84 area of the synthetic grids. */
+  public static final double[] SYNTHETIC_BBOX = {-111.5, -110.5, 40.0, 41.0};
+
+  private BenchmarkSupport() {}
+
+  /** A scanner that discards what is written, keeping the last value so it cannot be elided. */
+  public abstract static class DoubleSink implements Storage.DoubleScanner {
+
+    public double last;
+    public long count;
+
+    @Override
+    public final void add(double value) {
+      last = value;
+      count++;
+    }
+  }
+
+  /** As {@link DoubleSink} for integer storage. */
+  public abstract static class IntSink implements Storage.IntScanner {
+
+    public int last;
+    public long count;
+
+    @Override
+    public final void add(int value) {
+      last = value;
+      count++;
+    }
+  }
+
+  /** A scanner that returns the values of an array in order, for the state to coverage path. */
+  public abstract static class DoubleSource implements Storage.DoubleScanner {
+
+    public double[] values;
+    public int position;
+
+    @Override
+    public final double get() {
+      return values[position++ % values.length];
+    }
+
+    @Override
+    public final void add(double value) {
+      values[position++ % values.length] = value;
+    }
+  }
+
+  /**
+   * A scanner of the passed type over the passed grid in D2_XY order.
+   *
+   * @param type one of the sink or source classes above
+   * @param geometry the grid, also returned as the geometry of the shard
+   * @param cells number of cells, returned by {@code size()}
+   */
+  public static <T extends Storage.Scanner> T scanner(
+      Class<T> type, Geometry geometry, long cells) {
+    T ret =
+        mock(
+            type,
+            withSettings().mockMaker(MockMakers.SUBCLASS).defaultAnswer(RETURNS_DEEP_STUBS));
+    when(ret.shard().getGeometry()).thenReturn(geometry);
+    when(ret.shard().getShardingStrategy().getCurve()).thenReturn(Data.FillCurve.D2_XY);
+    try {
+      Object size =
+          type.getMethod("size").getReturnType() == long.class ? (Object) cells : (int) cells;
+      doReturn(size).when(ret).size();
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+    return ret;
+  }
+
+  /** A regular WGS84 grid of the passed size over the passed bounding box (x1, x2, y1, y2). */
+  public static Geometry grid(int width, int height, double[] bbox) {
+    return Geometry.create(
+        "S2("
+            + width
+            + ","
+            + height
+            + "){bbox=["
+            + bbox[0]
+            + " "
+            + bbox[1]
+            + " "
+            + bbox[2]
+            + " "
+            + bbox[3]
+            + "],proj=EPSG:4326}");
+  }
+
+  /**
+   * A coverage of random values over the passed area, with the same cells as a {@link #grid} of
+   * the same size, so that it is encoded without resampling.
+   *
+   * @param dataType a {@link DataBuffer} type
+   * @param nodataFraction fraction of cells set to NaN (floating point) or 0 (integer types)
+   */
+  public static GridCoverage2D syntheticCoverage(
+      int width, int height, int bands, int dataType, double nodataFraction, double[] bbox) {
+
+    WritableRaster raster = RasterFactory.createBandedRaster(dataType, width, height, bands, null);
+    SplittableRandom random = new SplittableRandom(42);
+    boolean integral = dataType != DataBuffer.TYPE_FLOAT && dataType != DataBuffer.TYPE_DOUBLE;
+    for (int b = 0; b < bands; b++) {
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          double value;
+          if (random.nextDouble() < nodataFraction) {
+            value = integral ? 0 : Double.NaN;
+          } else {
+            value = integral ? 1 + random.nextInt(200) : random.nextDouble() * 1000.0;
+          }
+          raster.setSample(x, y, b, value);
+        }
+      }
+    }
+
+    try {
+      var crs = CRS.decode("EPSG:4326", true);
+      var envelope = new ReferencedEnvelope(bbox[0], bbox[1], bbox[2], bbox[3], crs);
+      return new GridCoverageFactory().create("synthetic", raster, envelope);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** The WGS84 bounding box (x1, x2, y1, y2) of the central half of a raster file. */
+  public static double[] centralBbox(File file) {
+    var coverage = RasterEncoder.INSTANCE.readCoverage(file);
+    try {
+      var envelope =
+          ReferencedEnvelope.reference(coverage.getEnvelope())
+              .transform(CRS.decode("EPSG:4326", true), true);
+      double dx = envelope.getWidth() / 4;
+      double dy = envelope.getHeight() / 4;
+      return new double[] {
+        envelope.getMinX() + dx,
+        envelope.getMaxX() - dx,
+        envelope.getMinY() + dy,
+        envelope.getMaxY() - dy
+      };
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A raster resource over the passed file.
+   *
+   * @param parameters resource parameters, e.g. band, band mixer or transform
+   * @param metadata resource metadata, e.g. the interpolation
+   */
+  public static Resource resource(
+      File file, Map<String, Object> parameters, Map<String, Object> metadata) {
+    Parameters<String> resourceParameters = Parameters.create();
+    resourceParameters.putAll(parameters);
+    Parameters<String> resourceMetadata = Parameters.create();
+    resourceMetadata.putAll(metadata);
+    Resource ret = mock(Resource.class);
+    when(ret.getUrn()).thenReturn("benchmark:raster:" + file.getName());
+    when(ret.getParameters()).thenReturn(resourceParameters);
+    when(ret.getMetadata()).thenReturn(resourceMetadata);
+    when(ret.getLocalFiles()).thenReturn(List.of(file));
+    return ret;
+  }
+
+  /** An observation with no data key, which is all the state conversions need. */
+  public static Observation observation() {
+    Observation ret = mock(Observation.class, RETURNS_DEEP_STUBS);
+    when(ret.getObservable().getName()).thenReturn("benchmark");
+    return ret;
+  }
+
+  /** A scope whose storage manager has no data key for the passed observation. */
+  public static ContextScope scope(Observation observation) {
+    ContextScope ret = mock(ContextScope.class, RETURNS_DEEP_STUBS);
+    when(ret.getDigitalTwin().getStorageManager().getStorage(observation).getKey())
+        .thenReturn(null);
+    return ret;
+  }
+
+  /**
+   * The bundled test raster, from {@code klab.benchmark.raster} or the test resources of the
+   * component, whether run from the root or the benchmark directory.
+   */
+  public static File bundledRaster() {
+    String path = System.getProperty("klab.benchmark.raster");
+    if (path != null) {
+      return new File(path);
+    }
+    for (String candidate :
+        new String[] {
+          "src/test/resources/raster/utah_landcover.tif",
+          "../src/test/resources/raster/utah_landcover.tif"
+        }) {
+      File file = new File(candidate);
+      if (file.exists()) {
+        return file.getAbsoluteFile();
+      }
+    }
+    throw new IllegalStateException(
+        "utah_landcover.tif not found: set klab.benchmark.raster to its path");
+  }
+}
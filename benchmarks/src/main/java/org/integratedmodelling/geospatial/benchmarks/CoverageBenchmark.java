@@ -0,0 +1,155 @@
+package org.integratedmodelling.geospatial.benchmarks;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.imagen.Interpolation;
+import org.integratedmodelling.geospatial.adapters.RasterAdapter;
+import org.integratedmodelling.geospatial.adapters.raster.GridContext;
+import org.integratedmodelling.geospatial.adapters.raster.RasterEncoder;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading, reprojecting and encoding the bundled {@code utah_landcover.tif} onto WGS84 grids of
+ * increasing size. The tile store is disabled so that every uncached read decodes the file, except
+ * in {@link #warpedEncodeStored()}, which compares with {@link #warpedEncodeDecoded()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      "--add-modules", "jdk.incubator.vector", "-Dklab.geospatial.tilestore.quota.mb=0"
+    })
+public class CoverageBenchmark {
+
+  @Param({"128", "512", "1024"})
+  public int size;
+
+  @Param({"nearest", "bilinear", "bicubic"})
+  public String interpolation;
+
+  private File file;
+  private Geometry geometry;
+  private GridContext grid;
+  private Resource resource;
+  private Interpolation imageInterpolation;
+  private Parameters<String> urnParameters;
+  private BenchmarkSupport.DoubleSink doubles;
+
+  @Setup
+  public void setup() {
+    file = BenchmarkSupport.bundledRaster();
+    geometry = BenchmarkSupport.grid(size, size, BenchmarkSupport.centralBbox(file));
+    grid = GridContext.of(geometry);
+    resource =
+        BenchmarkSupport.resource(
+            file, Map.of(), Map.of(RasterAdapter.INTERPOLATION_PARAM, interpolation));
+    imageInterpolation = RasterEncoder.INSTANCE.getInterpolation(resource.getMetadata());
+    urnParameters = Parameters.create();
+    doubles =
+        BenchmarkSupport.scanner(
+            BenchmarkSupport.DoubleSink.class, geometry, (long) size * size);
+  }
+
+  /** Windowed read and resample, computing every cell of the result. */
+  @Benchmark
+  public Object readAndResample() {
+    var coverage =
+        RasterEncoder.INSTANCE.adaptCoverage(
+            RasterEncoder.INSTANCE.readCoverage(file, grid.getGridGeometry()),
+            geometry,
+            imageInterpolation);
+    return coverage.getRenderedImage().getData();
+  }
+
+  /**
+   * A reprojected encode whose source tiles come through the tile store: after the first
+   * iteration they are read from disk (and from the in-memory tile cache while the warp uses
+   * them) instead of being decoded.
+   */
+  @Benchmark
+  @Fork(
+      value = 1,
+      jvmArgsAppend = {
+        "--add-modules", "jdk.incubator.vector", "-Dklab.geospatial.tilestore.quota.mb=1024"
+      })
+  public double warpedEncodeStored() {
+    return encodeWarped();
+  }
+
+  /** The same encode decoding the source tiles every time. */
+  @Benchmark
+  public double warpedEncodeDecoded() {
+    return encodeWarped();
+  }
+
+  private double encodeWarped() {
+    var coverage =
+        RasterEncoder.INSTANCE.adaptCoverage(
+            RasterEncoder.INSTANCE.readCoverage(file, grid.getGridGeometry()),
+            geometry,
+            imageInterpolation);
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        resource,
+        urnParameters,
+        coverage,
+        geometry,
+        doubles,
+        null,
+        RasterAdapter.ENCODING_MODE);
+    return doubles.last;
+  }
+
+  /**
+   * The whole local raster path once the resampled coverage is in the cache: the encode copies
+   * cells held in memory, with no reading or resampling.
+   */
+  @Benchmark
+  public double encodeCached() {
+    return encodeFromResource();
+  }
+
+  /** The whole local raster path, as run by the raster adapter, with no coverage cache. */
+  @Benchmark
+  @Fork(
+      value = 1,
+      jvmArgsAppend = {
+        "--add-modules",
+        "jdk.incubator.vector",
+        "-Dklab.geospatial.tilestore.quota.mb=0",
+        "-Dklab.geospatial.coverage.cache.mb=0"
+      })
+  public double encodeFile() {
+    return encodeFromResource();
+  }
+
+  private double encodeFromResource() {
+    var coverage = RasterEncoder.INSTANCE.getCoverage(resource, geometry);
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        resource,
+        urnParameters,
+        coverage,
+        geometry,
+        doubles,
+        null,
+        RasterAdapter.ENCODING_MODE);
+    return doubles.last;
+  }
+}
@@ -0,0 +1,75 @@
+package org.integratedmodelling.geospatial.benchmarks;
+
+import java.awt.image.DataBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.integratedmodelling.geospatial.utils.Geotools;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+import org.integratedmodelling.klab.api.scope.ContextScope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Geotools#stateToCoverage} and {@link Geotools#coverageToState}, the conversions used by
+ * the exports and by the contextualizers that run GeoTools or HortonMachine operations on states.
+ * The stored values are read from and written to plain arrays; the scanner's {@code size()} is a
+ * stub and adds a constant cost per cell to {@code stateToCoverage}, which calls it in its loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1)
+public class GeotoolsBenchmark {
+
+  @Param({"256", "1024", "2048"})
+  public int size;
+
+  private Observation observation;
+  private ContextScope scope;
+  private BenchmarkSupport.DoubleSource state;
+  private GridCoverage2D coverage;
+
+  @Setup
+  public void setup() {
+    Geometry geometry = BenchmarkSupport.grid(size, size, BenchmarkSupport.SYNTHETIC_BBOX);
+    long cells = (long) size * size;
+    observation = BenchmarkSupport.observation();
+    scope = BenchmarkSupport.scope(observation);
+    state = BenchmarkSupport.scanner(BenchmarkSupport.DoubleSource.class, geometry, cells);
+    state.values = new double[(int) cells];
+    SplittableRandom random = new SplittableRandom(42);
+    for (int i = 0; i < cells; i++) {
+      state.values[i] = random.nextDouble() < 0.1 ? Double.NaN : random.nextDouble() * 1000.0;
+    }
+    coverage =
+        BenchmarkSupport.syntheticCoverage(
+            size, size, 1, DataBuffer.TYPE_FLOAT, 0.1, BenchmarkSupport.SYNTHETIC_BBOX);
+  }
+
+  @Benchmark
+  public GridCoverage2D stateToCoverage() {
+    state.position = 0;
+    return Geotools.stateToCoverage(
+        observation, state, DataBuffer.TYPE_FLOAT, Float.NaN, scope, false);
+  }
+
+  @Benchmark
+  public int coverageToState() {
+    state.position = 0;
+    Geotools.coverageToState(observation, coverage, state, null, scope);
+    return state.position;
+  }
+}
@@ -0,0 +1,116 @@
+package org.integratedmodelling.geospatial.benchmarks;
+
+import java.awt.image.DataBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.integratedmodelling.geospatial.adapters.RasterAdapter;
+import org.integratedmodelling.geospatial.adapters.raster.RasterEncoder;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RasterEncoder#encodeFromCoverage} over synthetic in-memory coverages aligned with the
+ * target grid, so that only the cell loop is measured: stripe reads, nodata matching, band mixing,
+ * the transform and the writes to storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      "--add-modules", "jdk.incubator.vector", "-Dklab.geospatial.tilestore.quota.mb=0"
+    })
+public class RasterEncodeBenchmark {
+
+  @Param({"256", "1024", "2048"})
+  public int size;
+
+  @Param({"1", "4"})
+  public int bands;
+
+  @Param({"SEQUENTIAL", "PARALLEL"})
+  public RasterEncoder.EncodingMode mode;
+
+  private Geometry geometry;
+  private GridCoverage2D floatCoverage;
+  private GridCoverage2D byteCoverage;
+  private Resource plain;
+  private Resource mixed;
+  private Resource transformed;
+  private Parameters<String> urnParameters;
+  private BenchmarkSupport.DoubleSink doubles;
+  private BenchmarkSupport.IntSink ints;
+
+  @Setup
+  public void setup() {
+    geometry = BenchmarkSupport.grid(size, size, BenchmarkSupport.SYNTHETIC_BBOX);
+    floatCoverage =
+        BenchmarkSupport.syntheticCoverage(
+            size, size, bands, DataBuffer.TYPE_FLOAT, 0.1, BenchmarkSupport.SYNTHETIC_BBOX);
+    byteCoverage =
+        BenchmarkSupport.syntheticCoverage(
+            size, size, bands, DataBuffer.TYPE_BYTE, 0.1, BenchmarkSupport.SYNTHETIC_BBOX);
+
+    var file = BenchmarkSupport.bundledRaster();
+    plain = BenchmarkSupport.resource(file, Map.of(), Map.of());
+    mixed =
+        BenchmarkSupport.resource(
+            file,
+            Map.of(
+                RasterAdapter.BANDMIXER_PARAM, bands > 1 ? "(b2 - b1) / (b2 + b1)" : "avg_value"),
+            Map.of());
+    transformed =
+        BenchmarkSupport.resource(
+            file, Map.of(RasterAdapter.TRANSFORM_PARAM, "self * 0.5 + 10"), Map.of());
+    urnParameters = Parameters.create();
+
+    long cells = (long) size * size;
+    doubles = BenchmarkSupport.scanner(BenchmarkSupport.DoubleSink.class, geometry, cells);
+    ints = BenchmarkSupport.scanner(BenchmarkSupport.IntSink.class, geometry, cells);
+  }
+
+  @Benchmark
+  public double encodeBand() {
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        plain, urnParameters, floatCoverage, geometry, doubles, null, mode);
+    return doubles.last;
+  }
+
+  @Benchmark
+  public double encodeMixed() {
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        mixed, urnParameters, floatCoverage, geometry, doubles, null, mode);
+    return doubles.last;
+  }
+
+  @Benchmark
+  public double encodeTransformed() {
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        transformed, urnParameters, floatCoverage, geometry, doubles, null, mode);
+    return doubles.last;
+  }
+
+  /** Byte samples into integer storage, with no conversion to double. */
+  @Benchmark
+  public int encodeIntegral() {
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        plain, urnParameters, byteCoverage, geometry, ints, null, mode);
+    return ints.last;
+  }
+}
@@ -1,11 +1,22 @@
 package org.integratedmodelling.geospatial.adapters;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Set;
 import org.geotools.api.coverage.grid.GridCoverage;
+import org.integratedmodelling.common.logging.Logging;
+import org.integratedmodelling.geospatial.adapters.raster.EncodingMetrics;
 import org.integratedmodelling.geospatial.adapters.raster.RasterEncoder;
+import org.integratedmodelling.geospatial.adapters.raster.RasterStatistics;
+import org.integratedmodelling.geospatial.adapters.raster.TiledTiffWriter;
+import org.integratedmodelling.klab.api.collections.Parameters;
 import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.data.Version;
+import org.integratedmodelling.klab.api.exceptions.KlabIOException;
+import org.integratedmodelling.klab.api.exceptions.KlabValidationException;
 import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.knowledge.*;
 import org.integratedmodelling.klab.api.scope.ContextScope;
@@ -13,6 +24,7 @@ import org.integratedmodelling.klab.api.services.resources.adapters.Importer;
 import org.integratedmodelling.klab.api.services.resources.adapters.Parameter;
 import org.integratedmodelling.klab.api.services.resources.adapters.ResourceAdapter;
 import org.integratedmodelling.klab.api.services.runtime.Notification;
+import org.integratedmodelling.klab.api.services.runtime.extension.KlabFunction;
 import org.integratedmodelling.klab.api.utils.Utils;
 
 /**
@@ -24,6 +36,7 @@ import org.integratedmodelling.klab.api.utils.Utils;
     version = Version.CURRENT,
     type = Artifact.Type.NUMBER,
     fillCurve = Data.FillCurve.D2_XY,
+    minSizeForSplitting = 1000000L, // each shard reads and resamples only its own window
     parameters = {
       // TODO
       @Parameter(
@@ -39,12 +52,20 @@ public class RasterAdapter {
   public static final String TRANSFORM_PARAM = "transform";
   public static final String BANDMIXER_PARAM = "bandmixer";
 
+  public static final String TILE_OPTION = "tile";
+  public static final String KEEP_ORIGINAL_OPTION = "keepOriginal";
+  public static final String OVERVIEW_RESAMPLING_OPTION = "overviewResampling";
+
+  /** Local files are decoded on every core: the encode is CPU-bound. */
+  public static final RasterEncoder.EncodingMode ENCODING_MODE =
+      RasterEncoder.EncodingMode.PARALLEL;
+
   /** All recognized primary file extensions. */
   public static Set<String> fileExtensions = Set.of("tif", "tiff");
 
   /** All recognized secondary file extensions */
   public static Set<String> secondaryFileExtensions =
-      Set.of("tfw", "prj", "tif.ovr", "tif.aux.xml", "txt", "pdf");
+      Set.of("tfw", "prj", "tif.ovr", "tif.aux.xml", "tiff.aux.xml", "txt", "pdf");
 
   /** Interpolation type for metadata */
   public static final String INTERPOLATION_TYPE_FIELD = "interpolation";
@@ -96,26 +117,189 @@ public class RasterAdapter {
       Geometry geometry,
       Observable observable,
       ContextScope scope) {
+    encodeRaster(resource, urn, builder, geometry, scope);
+  }
+
+  @ResourceAdapter.Encoder
+  public void encodeFloat(
+      Resource resource,
+      Urn urn,
+      Storage.FloatScanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
+    encodeRaster(resource, urn, builder, geometry, scope);
+  }
+
+  /** Integer rasters are written with no conversion to double. */
+  @ResourceAdapter.Encoder
+  public void encodeInt(
+      Resource resource,
+      Urn urn,
+      Storage.IntScanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
+    encodeRaster(resource, urn, builder, geometry, scope);
+  }
+
+  private void encodeRaster(
+      Resource resource,
+      Urn urn,
+      Storage.Scanner builder,
+      Geometry geometry,
+      ContextScope scope) {
 //    scope.info(Notification.debug("Encoding a raster."));
-    GridCoverage coverage = RasterEncoder.INSTANCE.getCoverage(resource, geometry);
+    var metrics = EncodingMetrics.start("raster");
+    var shardGeometry = RasterEncoder.INSTANCE.getShardGeometry(builder, geometry);
+    GridCoverage coverage = RasterEncoder.INSTANCE.getCoverage(resource, shardGeometry, metrics);
 
     RasterEncoder.INSTANCE.encodeFromCoverage(
-        resource, Utils.Resources.overrideParameters(resource, urn), coverage, geometry, builder, scope);
+        resource,
+        Utils.Resources.overrideParameters(resource, urn),
+        coverage,
+        shardGeometry,
+        builder,
+        scope,
+        ENCODING_MODE,
+        metrics);
+    metrics.report(resource.getUrn(), scope);
   }
 
+  /**
+   * Imports a GeoTIFF, rewriting it unless asked otherwise as a tiled, compressed GeoTIFF with
+   * internal overviews (see {@link TiledTiffWriter}) so that later reads only decode the tiles they
+   * need.
+   * The original file is replaced, or kept next to the new one as {@code <name>.original} if
+   * requested; files that are already tiled with overviews are left alone. If the rewrite fails
+   * reading or writing, the original file is imported as it is.
+   *
+   * @return the path of the file to import
+   * @throws KlabValidationException if the overview resampling option is not a known method
+   */
   @Importer(
       schema = "geotiff.import",
       knowledgeClass = KlabAsset.KnowledgeClass.RESOURCE,
       description = "Imports a raster resource",
       mediaType = "image/tiff;application=geotiff",
-      fileExtensions = {"tif", "tiff"})
-  public static String importGeotiff() {
-    return null;
+      fileExtensions = {"tif", "tiff"},
+      properties = {
+        @KlabFunction.Argument(
+            name = TILE_OPTION,
+            type = Artifact.Type.BOOLEAN,
+            optional = true,
+            description =
+                "Rewrite the file as a tiled GeoTIFF with internal overviews (default true)."),
+        @KlabFunction.Argument(
+            name = KEEP_ORIGINAL_OPTION,
+            type = Artifact.Type.BOOLEAN,
+            optional = true,
+            description = "Keep the original file when it is rewritten (default false)."),
+        @KlabFunction.Argument(
+            name = OVERVIEW_RESAMPLING_OPTION,
+            type = Artifact.Type.TEXT,
+            optional = true,
+            description =
+                "How overviews are computed: nearest or average (default nearest for integer"
+                    + " data, average otherwise). Files declaring a nodata value always use"
+                    + " nearest.")
+      })
+  public static String importGeotiff(File file, Parameters<String> properties) {
+
+    TiledTiffWriter.Resampling resampling =
+        getOverviewResampling(properties.get(OVERVIEW_RESAMPLING_OPTION, String.class));
+    if (!properties.get(TILE_OPTION, Boolean.TRUE) || TiledTiffWriter.isOptimized(file)) {
+      return file.getAbsolutePath();
+    }
+
+    File converted = new File(file.getParentFile(), file.getName() + ".tiled");
+    try {
+      TiledTiffWriter.write(file, converted, resampling);
+    } catch (KlabIOException e) {
+      // the original is still usable as it is
+      converted.delete();
+      Logging.INSTANCE.warn("cannot rewrite " + file.getName() + ": " + e.getMessage());
+      return file.getAbsolutePath();
+    } catch (RuntimeException e) {
+      converted.delete();
+      throw e;
+    }
+
+    // overviews are now internal; statistics in an older sidecar are recomputed on access
+    RasterEncoder.INSTANCE.releaseFile(file);
+    File overviews = new File(file.getParentFile(), file.getName() + ".ovr");
+    if (properties.get(KEEP_ORIGINAL_OPTION, Boolean.FALSE)) {
+      // not a raster extension, so never taken for the main file of the resource
+      File original = new File(file.getParentFile(), file.getName() + ".original");
+      move(file, original);
+      if (overviews.exists()) {
+        move(overviews, new File(file.getParentFile(), original.getName() + ".ovr"));
+      }
+    } else if (overviews.exists()) {
+      overviews.delete();
+    }
+    move(converted, file);
+
+    Logging.INSTANCE.info("rewrote " + file.getName() + " as a tiled GeoTIFF with overviews");
+    return file.getAbsolutePath();
   }
 
+  /**
+   * The resampling named by the import option, or null to choose it from the data.
+   *
+   * @throws KlabValidationException if the name is not a resampling method
+   */
+  private static TiledTiffWriter.Resampling getOverviewResampling(String name) {
+    if (name == null || name.isBlank()) {
+      return null;
+    }
+    try {
+      return TiledTiffWriter.Resampling.valueOf(name.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new KlabValidationException(
+          "invalid "
+              + OVERVIEW_RESAMPLING_OPTION
+              + " '"
+              + name
+              + "': use nearest or average");
+    }
+  }
+
+  private static void move(File source, File target) {
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new KlabIOException(e);
+    }
+  }
+
+  /**
+   * Computes the band statistics of the imported file, or reads them from its {@code .aux.xml}
+   * sidecar, so that later uses never scan the whole raster for them.
+   */
   @ResourceAdapter.Validator(phase = ResourceAdapter.Validator.LifecyclePhase.LocalImport)
   public Notification validateImported(Resource resource) {
-    // TODO
-    return Notification.info("Raster imported.", Notification.Outcome.Success);
+    try {
+      RasterStatistics[] statistics = RasterEncoder.INSTANCE.getFileStatistics(resource);
+      StringBuilder summary = new StringBuilder();
+      for (int band = 0; band < statistics.length; band++) {
+        if (statistics[band].getCount() == 0) {
+          return Notification.warning("Band " + (band + 1) + " of the raster has no data");
+        }
+        summary
+            .append(band == 0 ? "" : ", ")
+            .append("band ")
+            .append(band + 1)
+            .append(" [")
+            .append(statistics[band].getMin())
+            .append(", ")
+            .append(statistics[band].getMax())
+            .append("]");
+      }
+      return Notification.info("Raster imported: " + summary, Notification.Outcome.Success);
+    } catch (Throwable e) {
+      return Notification.error(
+          "Import caused an exception: " + e.getMessage(), e, Notification.Outcome.Failure);
+    }
   }
 }
@@ -2,6 +2,7 @@ package org.integratedmodelling.geospatial.adapters;
 
 import java.util.Set;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.integratedmodelling.geospatial.adapters.raster.EncodingMetrics;
 import org.integratedmodelling.geospatial.adapters.raster.RasterEncoder;
 import org.integratedmodelling.geospatial.adapters.stac.StacResource;
 import org.integratedmodelling.klab.api.collections.Parameters;
@@ -17,6 +18,7 @@ import org.integratedmodelling.klab.api.services.resources.adapters.Parameter;
 import org.integratedmodelling.klab.api.services.resources.adapters.ResourceAdapter;
 import org.integratedmodelling.klab.api.services.runtime.Notification;
 import org.integratedmodelling.klab.api.services.runtime.extension.KlabFunction;
+import org.integratedmodelling.klab.utilities.Utils;
 
 /**
  * STAC is service-bound, so it can be embedded in a runtime.
@@ -55,6 +57,13 @@ import org.integratedmodelling.klab.api.services.runtime.extension.KlabFunction;
     })
 public class StacAdapter {
 
+  /**
+   * STAC items are merged by the HortonMachine into a single untiled in-memory raster, which leaves
+   * nothing to split among workers.
+   */
+  public static final RasterEncoder.EncodingMode ENCODING_MODE =
+      RasterEncoder.EncodingMode.SEQUENTIAL;
+
   private static final Set<String> SUPPORTED_RASTER_MEDIA_TYPE =
       Set.of(
           "image/tiff;application=geotiff",
@@ -75,16 +84,54 @@ public class StacAdapter {
       Geometry geometry,
       Observable observable,
       ContextScope scope) {
+    encodeCollection(resource, urn, builder, geometry, observable, scope);
+  }
+
+  @ResourceAdapter.Encoder
+  public void encodeFloat(
+      Resource resource,
+      Urn urn,
+      @KlabFunction.Output Storage.FloatScanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
+    encodeCollection(resource, urn, builder, geometry, observable, scope);
+  }
+
+  /** Integer layers are written with no conversion to double. */
+  @ResourceAdapter.Encoder
+  public void encodeInt(
+      Resource resource,
+      Urn urn,
+      @KlabFunction.Output Storage.IntScanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
+    encodeCollection(resource, urn, builder, geometry, observable, scope);
+  }
+
+  private void encodeCollection(
+      Resource resource,
+      Urn urn,
+      Storage.Scanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
     var collection =
         new StacResource.Collection(resource.getParameters().get("collection", String.class));
     var assetId = resource.getParameters().get("asset", String.class);
-    var band = resource.getParameters().get("band", Integer.class);
+    var parameters = Utils.Resources.overrideParameters(resource, urn);
+    var band = parameters.get(RasterAdapter.BAND_PARAM, Integer.class);
+    geometry = RasterEncoder.INSTANCE.getShardGeometry(builder, geometry);
     var scale = Scale.create(geometry);
     var time = scale.getTime();
     var space = scale.getSpace();
     GridCoverage2D coverage = null;
+    var metrics = EncodingMetrics.start("stac");
+    long start = metrics.begin();
     try {
       coverage = collection.getCoverage(space, time, assetId, band, scope);
+      metrics.end(EncodingMetrics.Phase.DOWNLOAD, start);
       //      coverage = collection.getSTACCoverage(builder, space, time, assetId, scope);
     } catch (Exception e) {
       e.printStackTrace();
@@ -93,8 +140,29 @@ public class StacAdapter {
           Notification.Outcome.Failure);
       return;
     }
+    var interpolation = RasterEncoder.INSTANCE.getInterpolation(parameters);
     RasterEncoder.INSTANCE.encodeFromCoverage(
-        resource, Parameters.create(urn.getParameters()), coverage, geometry, builder, scope);
+        resource,
+        selectedBand(Parameters.create(urn.getParameters())),
+        RasterEncoder.INSTANCE.adaptCoverage(coverage, geometry, interpolation, metrics),
+        geometry,
+        builder,
+        scope,
+        ENCODING_MODE,
+        metrics);
+    metrics.report(resource.getUrn(), scope);
+  }
+
+  /**
+   * The encoding parameters for a coverage whose band was already selected by {@link
+   * StacResource.Collection#getCoverage}: the encoder must read its only band, not apply the
+   * band of the resource a second time.
+   */
+  static Parameters<String> selectedBand(Parameters<String> urnParameters) {
+    Parameters<String> ret = Parameters.create();
+    ret.putAll(urnParameters);
+    ret.put(RasterAdapter.BAND_PARAM, 0);
+    return ret;
   }
 
   @ResourceAdapter.Type
@@ -21,8 +21,11 @@ import org.hortonmachine.gears.libs.modules.HMRaster;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.integratedmodelling.common.knowledge.GeometryRepository;
 import org.integratedmodelling.common.logging.Logging;
+import org.integratedmodelling.geospatial.adapters.raster.EncodingMetrics;
+import org.integratedmodelling.geospatial.adapters.raster.GridContext;
 import org.integratedmodelling.geospatial.adapters.raster.RasterEncoder;
 import org.integratedmodelling.geospatial.adapters.wcs.WCSServiceManager;
+import org.integratedmodelling.geospatial.utils.GeospatialEvents;
 import org.integratedmodelling.klab.api.collections.Parameters;
 import org.integratedmodelling.klab.api.collections.Triple;
 import org.integratedmodelling.klab.api.configuration.Configuration;
@@ -95,7 +98,10 @@ import org.integratedmodelling.klab.utilities.Utils;
           name = "bandMixer",
           type = Artifact.Type.TEXT,
           description =
-              "Retrieve all bands and mix them to obtain the result based on this expression",
+              "Retrieve all bands and mix them to obtain the result: either an operation"
+                  + " (max_value, min_value, avg_value, sum_value, band_max_value,"
+                  + " band_min_value) or an arithmetic expression over bands b1..bN, e.g."
+                  + " (b4 - b3) / (b4 + b3)",
           optional = true),
       @Parameter(
           name = "interpolation",
@@ -107,6 +113,10 @@ import org.integratedmodelling.klab.utilities.Utils;
     })
 public class WCSAdapter {
 
+  /** Downloaded coverages are interpolated in parallel once they are local. */
+  public static final RasterEncoder.EncodingMode ENCODING_MODE =
+      RasterEncoder.EncodingMode.PARALLEL;
+
   static Map<String, WCSServiceManager> services = new HashMap<>();
   private final File adapterCacheDirectory;
   private final Map<String, File> filenames = new HashMap<>();
@@ -132,6 +142,7 @@ public class WCSAdapter {
                     (key, value) -> (int) (value.length() / 1048576L))
             .removalListener(
                 notification -> {
+                  RasterEncoder.INSTANCE.releaseFile(notification.getValue());
                   Utils.Files.deleteQuietly(notification.getValue());
                 })
             .build(
@@ -147,12 +158,22 @@ public class WCSAdapter {
                             .buildRetrieveUrl(
                                 Version.create("1.0.0"), key.getSecond(), key.getThird());
 
+                    var event = new GeospatialEvents.RemoteFetch();
+                    event.begin();
                     File ret = null;
                     try (InputStream input = getCov.openStream()) {
                       ret = getAdjustedCoverage(input, key.getSecond());
                     } catch (Throwable e) {
                       throw new KlabIOException(e);
                     }
+                    event.end();
+                    if (event.shouldCommit()) {
+                      fillFetchEvent(event, key.getFirst(), key.getSecond());
+                      event.source = getCov.toString();
+                      event.bytes = ret.length();
+                      event.cache = GeospatialEvents.MISS;
+                      event.commit();
+                    }
                     return ret;
                   }
                 });
@@ -202,6 +223,39 @@ public class WCSAdapter {
       Geometry geometry,
       Observable observable,
       ContextScope scope) {
+    encodeLayer(resource, urn, builder, geometry, observable, scope);
+  }
+
+  @ResourceAdapter.Encoder
+  public void encodeFloat(
+      Resource resource,
+      Urn urn,
+      @KlabFunction.Output Storage.FloatScanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
+    encodeLayer(resource, urn, builder, geometry, observable, scope);
+  }
+
+  /** Integer layers are written with no conversion to double. */
+  @ResourceAdapter.Encoder
+  public void encodeInt(
+      Resource resource,
+      Urn urn,
+      @KlabFunction.Output Storage.IntScanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
+    encodeLayer(resource, urn, builder, geometry, observable, scope);
+  }
+
+  private void encodeLayer(
+      Resource resource,
+      Urn urn,
+      Storage.Scanner builder,
+      Geometry geometry,
+      Observable observable,
+      ContextScope scope) {
 
     WCSServiceManager service =
         getService(
@@ -211,15 +265,25 @@ public class WCSAdapter {
 
     if (layer != null) {
       var parameters = Utils.Resources.overrideParameters(resource, urn);
-      var coverage = getCoverage(layer, service, observable, parameters, geometry);
+      var metrics = EncodingMetrics.start("wcs");
+      geometry = RasterEncoder.INSTANCE.getShardGeometry(builder, geometry);
+      var coverage = getCoverage(layer, service, observable, parameters, geometry, metrics);
       if (coverage == null) {
         scope.error(
             "Cannot build coverage for WCS layer "
                 + resource.getParameters().get("wcsIdentifier", String.class));
       } else {
         try {
+          // servers do not always return exactly the requested grid
+          var adapted =
+              RasterEncoder.INSTANCE.adaptCoverage(
+                  coverage,
+                  geometry,
+                  RasterEncoder.INSTANCE.getInterpolation(parameters),
+                  metrics);
           RasterEncoder.INSTANCE.encodeFromCoverage(
-              resource, parameters, coverage, geometry, builder, scope);
+              resource, parameters, adapted, geometry, builder, scope, ENCODING_MODE, metrics);
+          metrics.report(resource.getUrn(), scope);
         } catch (Throwable e) {
           scope.error(
               "WCS encoding failed with exception: " + e.getMessage(),
@@ -264,7 +328,8 @@ public class WCSAdapter {
       WCSServiceManager service,
       Observable observable,
       Parameters<String> parameters,
-      Geometry geometry) {
+      Geometry geometry,
+      EncodingMetrics metrics) {
 
     var interpolation = RasterAdapter.Interpolation.getDefaultForType(observable);
     if (parameters.containsKey(RasterAdapter.INTERPOLATION_PARAM)) {
@@ -272,7 +337,52 @@ public class WCSAdapter {
           RasterAdapter.Interpolation.fromField(
               parameters.get(RasterAdapter.INTERPOLATION_PARAM, String.class));
     }
-    return RasterEncoder.INSTANCE.readCoverage(getCachedFile(layer, geometry, interpolation));
+    var event = new GeospatialEvents.RemoteFetch();
+    event.begin();
+    long start = metrics.begin();
+    boolean cached = fileCache.getIfPresent(Triple.of(layer, geometry, interpolation)) != null;
+    File file = getCachedFile(layer, geometry, interpolation);
+    metrics.end(EncodingMetrics.Phase.DOWNLOAD, start);
+    if (!cached) {
+      metrics.add(EncodingMetrics.Counter.BYTES_DOWNLOADED, file.length());
+    } else {
+      // downloads are recorded by the cache loader
+      event.end();
+      if (event.shouldCommit()) {
+        fillFetchEvent(event, layer, geometry);
+        event.source = service.getServiceUrl() + "|" + layer.getIdentifier();
+        event.cache = GeospatialEvents.HIT;
+        event.commit();
+      }
+    }
+
+    // the downloaded file is temporary, so its decoded tiles are stored under the request
+    start = metrics.begin();
+    try {
+      return RasterEncoder.INSTANCE.readCoverage(
+          file,
+          service.getServiceUrl()
+              + "|"
+              + layer.getIdentifier()
+              + "|"
+              + geometry.key()
+              + "|"
+              + interpolation);
+    } finally {
+      metrics.end(EncodingMetrics.Phase.READ, start);
+    }
+  }
+
+  private static void fillFetchEvent(
+      GeospatialEvents.RemoteFetch event, WCSServiceManager.WCSLayer layer, Geometry geometry) {
+    event.service = "wcs";
+    event.bands = layer.getBandCount();
+    var space = geometry.dimension(Geometry.Dimension.Type.SPACE);
+    if (space != null && space.isRegular() && space.getDimensionality() == 2) {
+      var grid = GridContext.of(geometry);
+      event.gridWidth = grid.getWidth();
+      event.gridHeight = grid.getHeight();
+    }
   }
 
   private File getCachedFile(
@@ -0,0 +1,148 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.RenderedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.imagen.ImageLayout;
+import org.eclipse.imagen.ImageN;
+import org.eclipse.imagen.Interpolation;
+import org.eclipse.imagen.Warp;
+import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.api.referencing.datum.PixelInCell;
+import org.geotools.api.referencing.operation.MathTransform;
+import org.geotools.api.referencing.operation.MathTransform2D;
+import org.geotools.api.referencing.operation.NoninvertibleTransformException;
+import org.geotools.coverage.NoDataContainer;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.util.CoverageUtilities;
+import org.geotools.image.ImageWorker;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.referencing.operation.transform.WarpBuilder;
+import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
+
+/**
+ * Reprojection of a coverage onto a context grid through an approximate warp: the exact
+ * target-to-source pixel transform is evaluated on a sparse grid of points, refined until linear
+ * interpolation between them stays within the tolerance, and the resulting ImageN {@link Warp}
+ * interpolates positions for all the other pixels. Warps are cached per (source grid, target grid,
+ * tolerance), so reprojecting the same grids again, as happens with repeated encodes over one
+ * context, skips the transform entirely.
+ */
+public final class ApproximateWarp {
+
+  private record Key(GridGeometry2D source, GridGeometry2D target, double tolerance) {}
+
+  private static final int TILE_SIZE = 512;
+
+  private static final Cache<Key, Warp> warps =
+      CacheBuilder.newBuilder().maximumSize(64).recordStats().build();
+
+  private ApproximateWarp() {}
+
+  /**
+   * Warp the coverage onto the grid.
+   *
+   * @param coverage the source coverage, in any CRS
+   * @param grid the target grid
+   * @param interpolation the interpolation for sample values
+   * @param tolerance maximum error on the computed source positions, in source pixels
+   */
+  public static GridCoverage2D warp(
+      GridCoverage2D coverage, GridContext grid, Interpolation interpolation, double tolerance) {
+
+    GridGeometry2D sourceGrid = coverage.getGridGeometry();
+    GridGeometry2D targetGrid = grid.getGridGeometry();
+
+    Warp warp;
+    try {
+      warp =
+          warps.get(
+              new Key(sourceGrid, targetGrid, tolerance),
+              () -> buildWarp(sourceGrid, grid, tolerance));
+    } catch (UncheckedExecutionException | ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new KlabInternalErrorException(e.getCause());
+    }
+
+    ImageLayout layout = new ImageLayout();
+    layout.setMinX(0);
+    layout.setMinY(0);
+    layout.setWidth(grid.getWidth());
+    layout.setHeight(grid.getHeight());
+    layout.setTileGridXOffset(0);
+    layout.setTileGridYOffset(0);
+    layout.setTileWidth(Math.min(TILE_SIZE, grid.getWidth()));
+    layout.setTileHeight(Math.min(TILE_SIZE, grid.getHeight()));
+
+    /*
+     * Nodata and ROI go to the warp as in the GeoTools resampler, so that interpolation never
+     * blends nodata values into the valid cells next to them.
+     */
+    ImageWorker worker = new ImageWorker(coverage.getRenderedImage());
+    worker.setRenderingHints(new RenderingHints(ImageN.KEY_IMAGE_LAYOUT, layout));
+    NoDataContainer nodata = CoverageUtilities.getNoDataProperty(coverage);
+    if (nodata != null) {
+      worker.setNoData(nodata.getAsRange());
+    }
+    worker.setROI(CoverageUtilities.getROIProperty(coverage));
+    worker.setBackground(CoverageUtilities.getBackgroundValues(coverage));
+    RenderedImage image = worker.warp(warp, interpolation).getRenderedImage();
+
+    Map<String, Object> properties = new HashMap<>();
+    if (coverage.getProperties() != null) {
+      coverage.getProperties().forEach((key, value) -> properties.put(key.toString(), value));
+    }
+    if (worker.getNoData() != null) {
+      CoverageUtilities.setNoDataProperty(properties, worker.getNoData());
+    }
+    if (worker.getROI() != null) {
+      CoverageUtilities.setROIProperty(properties, worker.getROI());
+    }
+
+    return new GridCoverageFactory()
+        .create(
+            coverage.getName(),
+            image,
+            targetGrid,
+            coverage.getSampleDimensions(),
+            new GridCoverage[] {coverage},
+            properties);
+  }
+
+  /** Number of warps built and reused. */
+  public static CacheStats getStats() {
+    return warps.stats();
+  }
+
+  private static Warp buildWarp(GridGeometry2D sourceGrid, GridContext grid, double tolerance)
+      throws Exception {
+
+    // target pixel -> target CRS -> source CRS -> source pixel, pixel corners as ImageN expects
+    MathTransform targetToSource;
+    try {
+      targetToSource =
+          ConcatenatedTransform.create(
+              grid.getGridGeometry().getGridToCRS(PixelInCell.CELL_CORNER),
+              grid.getTransformFrom(sourceGrid.getCoordinateReferenceSystem()).inverse(),
+              sourceGrid.getGridToCRS(PixelInCell.CELL_CORNER).inverse());
+    } catch (NoninvertibleTransformException e) {
+      throw new KlabInternalErrorException(e);
+    }
+
+    return new WarpBuilder(tolerance)
+        .buildWarp(
+            (MathTransform2D) targetToSource,
+            new Rectangle(0, 0, grid.getWidth(), grid.getHeight()));
+  }
+}
@@ -0,0 +1,624 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.DoubleUnaryOperator;
+import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
+
+/**
+ * A compiled arithmetic expression over a fixed list of double variables, evaluated on primitives
+ * with no allocation. Covers the subset of Groovy used in value transforms ({@code self * 0.1},
+ * {@code Math.log(self + 1)}, {@code self ** 2}): numbers, variables, the four operations plus
+ * {@code %} and {@code **}, parentheses and the common {@link Math} functions, which must be
+ * qualified as in Groovy ({@code Math.abs(self)}, not {@code abs(self)}). Anything else is
+ * rejected at compile time so that the caller can fall back to a full script engine.
+ *
+ * <p>Besides per-value evaluation, {@link #evaluate(double[][], int, double[])} runs the expression
+ * over whole blocks of cells with variables bound to planes (e.g. one array per raster band), one
+ * tight loop per tree node, which amortizes the tree walk over many cells.
+ *
+ * <p>Compiled expressions are immutable and the most recent ones are cached by text and variable
+ * names, so they can be shared across threads and encodes.
+ */
+public final class ArithmeticExpression implements DoubleUnaryOperator {
+
+  private static final Cache<String, Optional<ArithmeticExpression>> cache =
+      CacheBuilder.newBuilder().maximumSize(1024).build();
+
+  private static final int BLOCK_SIZE = 1024;
+
+  private final String text;
+  private final List<String> variables;
+  private final Node root;
+  private final int depth;
+  private final int[] usedVariables;
+
+  private ArithmeticExpression(String text, List<String> variables, Node root) {
+    this.text = text;
+    this.variables = variables;
+    this.root = root;
+    this.depth = root.depth();
+    BitSet used = new BitSet();
+    root.collectVariables(used);
+    this.usedVariables = used.stream().toArray();
+  }
+
+  /**
+   * Compile the passed expression, returning an empty optional if it uses anything beyond plain
+   * arithmetic on the passed variables. Results (including failures) are cached.
+   *
+   * @param text the expression
+   * @param variables the variable names, whose position is the index used in {@link
+   *     #evaluate(double[], int)}
+   * @return the compiled expression, or empty if the expression is not arithmetic-only
+   */
+  public static Optional<ArithmeticExpression> compile(String text, List<String> variables) {
+    try {
+      return cache.get(
+          String.join(",", variables) + ":" + text,
+          () -> {
+            try {
+              var parser = new Parser(text, variables);
+              return Optional.of(
+                  new ArithmeticExpression(text, List.copyOf(variables), parser.parse()));
+            } catch (IllegalArgumentException e) {
+              return Optional.empty();
+            }
+          });
+    } catch (UncheckedExecutionException | ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new KlabInternalErrorException(e.getCause());
+    }
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public List<String> getVariables() {
+    return variables;
+  }
+
+  /** Indices of the variables actually referenced by the expression, in ascending order. */
+  public int[] getUsedVariables() {
+    return usedVariables.clone();
+  }
+
+  /**
+   * Evaluate with the variables read from {@code values[offset + i]}, i being the position of the
+   * variable in the list passed at compilation.
+   */
+  public double evaluate(double[] values, int offset) {
+    return root.eval(Double.NaN, values, offset);
+  }
+
+  /**
+   * Evaluate over {@code length} cells with variable {@code i} read from {@code planes[i]}, writing
+   * the results to {@code output}. Planes of unused variables may be null.
+   */
+  public void evaluate(double[][] planes, int length, double[] output) {
+    double[][] scratch = new double[depth][Math.min(BLOCK_SIZE, length)];
+    for (int from = 0; from < length; from += BLOCK_SIZE) {
+      int n = Math.min(BLOCK_SIZE, length - from);
+      root.evalBlock(planes, from, n, output, from, scratch, 0);
+    }
+  }
+
+  /** Evaluate a single-variable expression with the passed value for the variable. */
+  @Override
+  public double applyAsDouble(double value) {
+    return root.eval(value, null, 0);
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+  /*
+   * Expression tree. Variables read the scalar argument when no array is passed, which is how the
+   * single-variable form works without allocating. Block evaluation writes n results at
+   * out[outOffset...], using scratch[depth...] for intermediate operands.
+   */
+  private interface Node {
+
+    double eval(double self, double[] values, int offset);
+
+    void evalBlock(
+        double[][] planes,
+        int from,
+        int n,
+        double[] out,
+        int outOffset,
+        double[][] scratch,
+        int depth);
+
+    /** Number of scratch buffers needed to evaluate this node in blocks. */
+    default int depth() {
+      return 0;
+    }
+
+    default void collectVariables(BitSet variables) {}
+  }
+
+  private record Constant(double value) implements Node {
+    @Override
+    public double eval(double self, double[] values, int offset) {
+      return value;
+    }
+
+    @Override
+    public void evalBlock(
+        double[][] planes,
+        int from,
+        int n,
+        double[] out,
+        int outOffset,
+        double[][] scratch,
+        int depth) {
+      Arrays.fill(out, outOffset, outOffset + n, value);
+    }
+  }
+
+  private record Variable(int index) implements Node {
+    @Override
+    public double eval(double self, double[] values, int offset) {
+      return values == null ? self : values[offset + index];
+    }
+
+    @Override
+    public void evalBlock(
+        double[][] planes,
+        int from,
+        int n,
+        double[] out,
+        int outOffset,
+        double[][] scratch,
+        int depth) {
+      System.arraycopy(planes[index], from, out, outOffset, n);
+    }
+
+    @Override
+    public void collectVariables(BitSet variables) {
+      variables.set(index);
+    }
+  }
+
+  private record Negate(Node operand) implements Node {
+    @Override
+    public double eval(double self, double[] values, int offset) {
+      return -operand.eval(self, values, offset);
+    }
+
+    @Override
+    public void evalBlock(
+        double[][] planes,
+        int from,
+        int n,
+        double[] out,
+        int outOffset,
+        double[][] scratch,
+        int depth) {
+      operand.evalBlock(planes, from, n, out, outOffset, scratch, depth);
+      for (int i = outOffset; i < outOffset + n; i++) {
+        out[i] = -out[i];
+      }
+    }
+
+    @Override
+    public int depth() {
+      return operand.depth();
+    }
+
+    @Override
+    public void collectVariables(BitSet variables) {
+      operand.collectVariables(variables);
+    }
+  }
+
+  private record Binary(char operator, Node left, Node right) implements Node {
+    @Override
+    public double eval(double self, double[] values, int offset) {
+      double a = left.eval(self, values, offset);
+      double b = right.eval(self, values, offset);
+      return apply(operator, a, b);
+    }
+
+    @Override
+    public void evalBlock(
+        double[][] planes,
+        int from,
+        int n,
+        double[] out,
+        int outOffset,
+        double[][] scratch,
+        int depth) {
+      left.evalBlock(planes, from, n, out, outOffset, scratch, depth);
+      double[] b = scratch[depth];
+      right.evalBlock(planes, from, n, b, 0, scratch, depth + 1);
+      switch (operator) {
+        case '+' -> {
+          for (int i = 0; i < n; i++) {
+            out[outOffset + i] += b[i];
+          }
+        }
+        case '-' -> {
+          for (int i = 0; i < n; i++) {
+            out[outOffset + i] -= b[i];
+          }
+        }
+        case '*' -> {
+          for (int i = 0; i < n; i++) {
+            out[outOffset + i] *= b[i];
+          }
+        }
+        case '/' -> {
+          for (int i = 0; i < n; i++) {
+            out[outOffset + i] /= b[i];
+          }
+        }
+        default -> {
+          for (int i = 0; i < n; i++) {
+            out[outOffset + i] = apply(operator, out[outOffset + i], b[i]);
+          }
+        }
+      }
+    }
+
+    @Override
+    public int depth() {
+      return Math.max(left.depth(), right.depth() + 1);
+    }
+
+    @Override
+    public void collectVariables(BitSet variables) {
+      left.collectVariables(variables);
+      right.collectVariables(variables);
+    }
+
+    static double apply(char operator, double a, double b) {
+      return switch (operator) {
+        case '+' -> a + b;
+        case '-' -> a - b;
+        case '*' -> a * b;
+        case '/' -> a / b;
+        case '%' -> a % b;
+        case '^' -> Math.pow(a, b);
+        default -> Double.NaN;
+      };
+    }
+  }
+
+  private record Function1(DoubleUnaryOperator function, Node argument) implements Node {
+    @Override
+    public double eval(double self, double[] values, int offset) {
+      return function.applyAsDouble(argument.eval(self, values, offset));
+    }
+
+    @Override
+    public void evalBlock(
+        double[][] planes,
+        int from,
+        int n,
+        double[] out,
+        int outOffset,
+        double[][] scratch,
+        int depth) {
+      argument.evalBlock(planes, from, n, out, outOffset, scratch, depth);
+      for (int i = outOffset; i < outOffset + n; i++) {
+        out[i] = function.applyAsDouble(out[i]);
+      }
+    }
+
+    @Override
+    public int depth() {
+      return argument.depth();
+    }
+
+    @Override
+    public void collectVariables(BitSet variables) {
+      argument.collectVariables(variables);
+    }
+  }
+
+  private record Function2(char function, Node first, Node second) implements Node {
+    @Override
+    public double eval(double self, double[] values, int offset) {
+      return apply(function, first.eval(self, values, offset), second.eval(self, values, offset));
+    }
+
+    @Override
+    public void evalBlock(
+        double[][] planes,
+        int from,
+        int n,
+        double[] out,
+        int outOffset,
+        double[][] scratch,
+        int depth) {
+      first.evalBlock(planes, from, n, out, outOffset, scratch, depth);
+      double[] b = scratch[depth];
+      second.evalBlock(planes, from, n, b, 0, scratch, depth + 1);
+      for (int i = 0; i < n; i++) {
+        out[outOffset + i] = apply(function, out[outOffset + i], b[i]);
+      }
+    }
+
+    @Override
+    public int depth() {
+      return Math.max(first.depth(), second.depth() + 1);
+    }
+
+    @Override
+    public void collectVariables(BitSet variables) {
+      first.collectVariables(variables);
+      second.collectVariables(variables);
+    }
+
+    static double apply(char function, double a, double b) {
+      return switch (function) {
+        case 'm' -> Math.min(a, b);
+        case 'M' -> Math.max(a, b);
+        case 'p' -> Math.pow(a, b);
+        case 'a' -> Math.atan2(a, b);
+        default -> Double.NaN;
+      };
+    }
+  }
+
+  private static final Map<String, DoubleUnaryOperator> unaryFunctions =
+      Map.ofEntries(
+          Map.entry("abs", Math::abs),
+          Map.entry("sqrt", Math::sqrt),
+          Map.entry("cbrt", Math::cbrt),
+          Map.entry("exp", Math::exp),
+          Map.entry("log", Math::log),
+          Map.entry("log10", Math::log10),
+          Map.entry("sin", Math::sin),
+          Map.entry("cos", Math::cos),
+          Map.entry("tan", Math::tan),
+          Map.entry("asin", Math::asin),
+          Map.entry("acos", Math::acos),
+          Map.entry("atan", Math::atan),
+          Map.entry("floor", Math::floor),
+          Map.entry("ceil", Math::ceil),
+          Map.entry("round", v -> (double) Math.round(v)),
+          Map.entry("signum", Math::signum),
+          Map.entry("toRadians", Math::toRadians),
+          Map.entry("toDegrees", Math::toDegrees));
+
+  private static final Map<String, Character> binaryFunctions =
+      Map.of("min", 'm', "max", 'M', "pow", 'p', "atan2", 'a');
+
+  /** Recursive descent parser producing a constant-folded tree. */
+  private static class Parser {
+
+    private final String text;
+    private final List<String> variables;
+    private int pos = 0;
+
+    Parser(String text, List<String> variables) {
+      this.text = text;
+      this.variables = variables;
+    }
+
+    Node parse() {
+      if (text == null || text.isBlank()) {
+        throw new IllegalArgumentException("empty expression");
+      }
+      Node ret = expression();
+      skipBlanks();
+      if (pos < text.length()) {
+        throw new IllegalArgumentException("unexpected input at " + pos + " in " + text);
+      }
+      return ret;
+    }
+
+    private Node expression() {
+      Node ret = term();
+      while (true) {
+        if (accept('+')) {
+          ret = binary('+', ret, term());
+        } else if (accept('-')) {
+          ret = binary('-', ret, term());
+        } else {
+          return ret;
+        }
+      }
+    }
+
+    private Node term() {
+      Node ret = unary();
+      while (true) {
+        if (peekPower()) {
+          return ret;
+        } else if (accept('*')) {
+          ret = binary('*', ret, unary());
+        } else if (accept('/')) {
+          ret = binary('/', ret, unary());
+        } else if (accept('%')) {
+          ret = binary('%', ret, unary());
+        } else {
+          return ret;
+        }
+      }
+    }
+
+    private Node unary() {
+      if (accept('-')) {
+        Node operand = unary();
+        return operand instanceof Constant c ? new Constant(-c.value()) : new Negate(operand);
+      }
+      if (accept('+')) {
+        return unary();
+      }
+      return power();
+    }
+
+    /**
+     * As in Groovy, {@code **} is left-associative and binds tighter than a sign on its left, while
+     * a sign on its right applies to the whole power chain that follows: {@code 2 ** 3 ** 2} is 64,
+     * {@code -2 ** 2} is -4 and {@code 2 ** -3 ** 2} is 2<sup>-9</sup>.
+     */
+    private Node power() {
+      Node ret = primary();
+      while (peekPower()) {
+        pos += 2;
+        ret = binary('^', ret, exponent());
+      }
+      return ret;
+    }
+
+    private Node exponent() {
+      skipBlanks();
+      if (pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+        return unary();
+      }
+      return primary();
+    }
+
+    private Node primary() {
+      skipBlanks();
+      if (pos >= text.length()) {
+        throw new IllegalArgumentException("unexpected end of expression " + text);
+      }
+      char c = text.charAt(pos);
+      if (c == '(') {
+        pos++;
+        Node ret = expression();
+        expect(')');
+        return ret;
+      }
+      if (Character.isDigit(c) || c == '.') {
+        return number();
+      }
+      if (Character.isJavaIdentifierStart(c)) {
+        String name = identifier();
+        if (name.equals("Math")) {
+          expect('.');
+          name = identifier();
+          if (name.equals("PI")) {
+            return new Constant(Math.PI);
+          } else if (name.equals("E")) {
+            return new Constant(Math.E);
+          }
+          return call(name);
+        }
+        int index = variables.indexOf(name);
+        if (index >= 0) {
+          return new Variable(index);
+        }
+        // unqualified functions are not defined in Groovy scripts
+        throw new IllegalArgumentException("unknown variable " + name + " in " + text);
+      }
+      throw new IllegalArgumentException("unexpected character '" + c + "' in " + text);
+    }
+
+    private Node call(String name) {
+      expect('(');
+      List<Node> arguments = new ArrayList<>();
+      if (!accept(')')) {
+        do {
+          arguments.add(expression());
+        } while (accept(','));
+        expect(')');
+      }
+      if (arguments.size() == 1 && unaryFunctions.containsKey(name)) {
+        var function = unaryFunctions.get(name);
+        var argument = arguments.getFirst();
+        return argument instanceof Constant c
+            ? new Constant(function.applyAsDouble(c.value()))
+            : new Function1(function, argument);
+      }
+      if (arguments.size() == 2 && binaryFunctions.containsKey(name)) {
+        var ret = new Function2(binaryFunctions.get(name), arguments.get(0), arguments.get(1));
+        return arguments.get(0) instanceof Constant && arguments.get(1) instanceof Constant
+            ? new Constant(ret.eval(Double.NaN, null, 0))
+            : ret;
+      }
+      throw new IllegalArgumentException("unsupported function " + name + " in " + text);
+    }
+
+    private Node binary(char operator, Node left, Node right) {
+      if (left instanceof Constant a && right instanceof Constant b) {
+        return new Constant(Binary.apply(operator, a.value(), b.value()));
+      }
+      return new Binary(operator, left, right);
+    }
+
+    private Node number() {
+      int start = pos;
+      while (pos < text.length()
+          && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+        pos++;
+      }
+      if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+        pos++;
+        if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+          pos++;
+        }
+        while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+          pos++;
+        }
+      }
+      String literal = text.substring(start, pos);
+      // Groovy numeric suffixes
+      if (pos < text.length() && "dDfFlLgG".indexOf(text.charAt(pos)) >= 0) {
+        pos++;
+      }
+      try {
+        return new Constant(Double.parseDouble(literal));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("invalid number " + literal + " in " + text);
+      }
+    }
+
+    private String identifier() {
+      skipBlanks();
+      int start = pos;
+      while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+        pos++;
+      }
+      if (start == pos) {
+        throw new IllegalArgumentException("identifier expected at " + pos + " in " + text);
+      }
+      return text.substring(start, pos);
+    }
+
+    private boolean peekPower() {
+      skipBlanks();
+      return text.startsWith("**", pos);
+    }
+
+    private boolean accept(char c) {
+      skipBlanks();
+      if (pos < text.length() && text.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) {
+      if (!accept(c)) {
+        throw new IllegalArgumentException("'" + c + "' expected at " + pos + " in " + text);
+      }
+    }
+
+    private void skipBlanks() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+    }
+  }
+}
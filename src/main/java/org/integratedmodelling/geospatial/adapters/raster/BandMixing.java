@@ -1,6 +1,10 @@
 package org.integratedmodelling.geospatial.adapters.raster;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import org.integratedmodelling.common.logging.Logging;
 
 public class BandMixing {
   public enum Operation {
@@ -20,6 +24,16 @@ public class BandMixing {
     public String getLabel() {
       return label;
     }
+
+    /** Lookup by constant name or label, ignoring case. */
+    public static Optional<Operation> forName(String name) {
+      for (Operation operation : values()) {
+        if (operation.name().equalsIgnoreCase(name) || operation.label.equalsIgnoreCase(name)) {
+          return Optional.of(operation);
+        }
+      }
+      return Optional.empty();
+    }
   }
 
   public static EnumSet<Operation> implementedOperations =
@@ -30,4 +44,168 @@ public class BandMixing {
           Operation.SUM_VALUE,
           Operation.BAND_MAX_VALUE,
           Operation.BAND_MIN_VALUE);
+
+  /**
+   * Reduces all bands of a block of cells to one value per cell. Bands are passed as planes (one
+   * primitive array per band, same cell order in each) so that implementations can process many
+   * cells per instruction. NaN marks nodata in input and output: nodata bands are skipped and cells
+   * with no valid band produce NaN.
+   */
+  public interface Reducer {
+
+    /**
+     * @param operation the reduction
+     * @param planes one array per band, each with at least {@code length} values
+     * @param length number of cells to reduce
+     * @param output receives {@code length} results
+     */
+    void reduce(Operation operation, double[][] planes, int length, double[] output);
+  }
+
+  /**
+   * A parsed band mixing specification: either one of the {@link Operation}s, or a band algebra
+   * expression over the variables {@code b1 ... bN} (1-based, as in the usual band naming), e.g.
+   * {@code (b4 - b3) / (b4 + b3)}. Expressions are compiled once and evaluated over whole blocks of
+   * cells; nodata (NaN) in any referenced band propagates to the result, as do non-finite results
+   * such as divisions by zero.
+   */
+  public static final class Mixer {
+
+    private final Operation operation;
+    private final ArithmeticExpression expression;
+    private final int nBands;
+    private final int[] bands;
+
+    private Mixer(Operation operation, ArithmeticExpression expression, int nBands, int[] bands) {
+      this.operation = operation;
+      this.expression = expression;
+      this.nBands = nBands;
+      this.bands = bands;
+    }
+
+    /**
+     * Parse the value of the band mixer parameter for a raster with the passed number of bands.
+     *
+     * @return the mixer, or empty if the specification is neither an operation nor a valid
+     *     expression over the available bands
+     */
+    public static Optional<Mixer> parse(String specification, int nBands) {
+      if (specification == null || specification.isBlank()) {
+        return Optional.empty();
+      }
+      var operation = Operation.forName(specification.trim());
+      if (operation.isPresent()) {
+        int[] bands = new int[nBands];
+        for (int b = 0; b < nBands; b++) {
+          bands[b] = b;
+        }
+        return Optional.of(new Mixer(operation.get(), null, nBands, bands));
+      }
+      List<String> variables = new ArrayList<>(nBands);
+      for (int b = 1; b <= nBands; b++) {
+        variables.add("b" + b);
+      }
+      return ArithmeticExpression.compile(specification.trim(), variables)
+          .map(expression -> new Mixer(null, expression, nBands, expression.getUsedVariables()));
+    }
+
+    /** The 0-based bands to read, in the order in which {@link #mix} expects their planes. */
+    public int[] getBands() {
+      return bands.clone();
+    }
+
+    /**
+     * Mix the first {@code length} cells of the passed planes, one per band in {@link #getBands()}
+     * order with nodata already set to NaN.
+     */
+    public void mix(double[][] planes, int length, double[] output) {
+      if (operation != null) {
+        getReducer().reduce(operation, planes, length, output);
+        return;
+      }
+      double[][] variables = new double[nBands][];
+      for (int i = 0; i < bands.length; i++) {
+        variables[bands[i]] = planes[i];
+      }
+      expression.evaluate(variables, length, output);
+      for (int i = 0; i < length; i++) {
+        if (!Double.isFinite(output[i])) {
+          output[i] = Double.NaN;
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return operation != null ? operation.getLabel() : expression.getText();
+    }
+  }
+
+  private static final Reducer reducer = createReducer();
+
+  /**
+   * The fastest reducer available: SIMD through {@code jdk.incubator.vector} when the component is
+   * built with the {@code vector} profile and the module is in the boot layer (the JVM must be
+   * started with {@code --add-modules jdk.incubator.vector}), scalar otherwise.
+   */
+  public static Reducer getReducer() {
+    return reducer;
+  }
+
+  private static Reducer createReducer() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+      try {
+        // loaded reflectively so that this class links even without the incubator module
+        return (Reducer)
+            Class.forName(BandMixing.class.getPackageName() + ".VectorBandReducer")
+                .getDeclaredConstructor()
+                .newInstance();
+      } catch (Throwable e) {
+        Logging.INSTANCE.warn("Vector API unusable, band mixing will be scalar: " + e.getMessage());
+      }
+    }
+    return new ScalarReducer();
+  }
+
+  /** Plain loop implementation, also the reference for the vectorized one. */
+  static class ScalarReducer implements Reducer {
+
+    @Override
+    public void reduce(Operation operation, double[][] planes, int length, double[] output) {
+      for (int i = 0; i < length; i++) {
+        output[i] = reduce(operation, planes, i);
+      }
+    }
+
+    static double reduce(Operation operation, double[][] planes, int i) {
+      double result = Double.NaN;
+      double extreme = Double.NaN;
+      int valid = 0;
+      for (int band = 0; band < planes.length; band++) {
+        double value = planes[band][i];
+        if (Double.isNaN(value)) {
+          continue;
+        }
+        switch (operation) {
+          case MAX_VALUE -> result = valid == 0 ? value : Math.max(result, value);
+          case MIN_VALUE -> result = valid == 0 ? value : Math.min(result, value);
+          case AVG_VALUE, SUM_VALUE -> result = valid == 0 ? value : result + value;
+          case BAND_MAX_VALUE -> {
+            if (valid == 0 || value > extreme) {
+              extreme = value;
+              result = band;
+            }
+          }
+          case BAND_MIN_VALUE -> {
+            if (valid == 0 || value < extreme) {
+              extreme = value;
+              result = band;
+            }
+          }
+        }
+        valid++;
+      }
+      return operation == Operation.AVG_VALUE && valid > 0 ? result / valid : result;
+    }
+  }
 }
@@ -0,0 +1,107 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import org.integratedmodelling.klab.api.data.Storage;
+
+/**
+ * Writes encoded cells, in fill order, to a storage scanner of the type requested by the runtime.
+ * Values computed in double precision are narrowed on the way in; integral writers also accept
+ * integer samples read natively from the raster, so that integer codes never go through a
+ * double.
+ */
+abstract class CellWriter {
+
+  /** Nodata in integer storage, as used by the GeoTIFF export of integer states. */
+  public static final int INT_NODATA = Integer.MIN_VALUE;
+
+  /**
+   * The writer for the passed scanner.
+   *
+   * @throws IllegalArgumentException if the scanner type cannot receive raster values, as is the
+   *     case for keyed storage, whose values are concepts rather than raster codes
+   */
+  static CellWriter of(Storage.Scanner scanner) {
+    return switch (scanner) {
+      case Storage.DoubleScanner doubles -> new Doubles(doubles);
+      case Storage.FloatScanner floats -> new Floats(floats);
+      case Storage.IntScanner ints -> new Ints(ints);
+      default ->
+          throw new IllegalArgumentException(
+              "cannot encode raster data into " + scanner.getClass().getSimpleName());
+    };
+  }
+
+  /** True if the storage holds integers, so that integer samples can be written as they are. */
+  boolean isIntegral() {
+    return false;
+  }
+
+  abstract void add(double value);
+
+  void add(int value) {
+    add(value == INT_NODATA ? Double.NaN : value);
+  }
+
+  void write(double[] values, int length) {
+    for (int i = 0; i < length; i++) {
+      add(values[i]);
+    }
+  }
+
+  void write(int[] values, int length) {
+    for (int i = 0; i < length; i++) {
+      add(values[i]);
+    }
+  }
+
+  private static final class Doubles extends CellWriter {
+
+    private final Storage.DoubleScanner scanner;
+
+    Doubles(Storage.DoubleScanner scanner) {
+      this.scanner = scanner;
+    }
+
+    @Override
+    void add(double value) {
+      scanner.add(value);
+    }
+  }
+
+  private static final class Floats extends CellWriter {
+
+    private final Storage.FloatScanner scanner;
+
+    Floats(Storage.FloatScanner scanner) {
+      this.scanner = scanner;
+    }
+
+    @Override
+    void add(double value) {
+      scanner.add((float) value);
+    }
+  }
+
+  private static final class Ints extends CellWriter {
+
+    private final Storage.IntScanner scanner;
+
+    Ints(Storage.IntScanner scanner) {
+      this.scanner = scanner;
+    }
+
+    @Override
+    boolean isIntegral() {
+      return true;
+    }
+
+    @Override
+    void add(double value) {
+      scanner.add(Double.isNaN(value) ? INT_NODATA : (int) Math.round(value));
+    }
+
+    @Override
+    void add(int value) {
+      scanner.add(value);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.eclipse.imagen.Interpolation;
+import org.eclipse.imagen.TiledImage;
+import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.integratedmodelling.common.logging.Logging;
+import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
+
+/**
+ * Memory-bounded LRU cache of coverages already subset and resampled to a target grid, so that
+ * repeated encodes of the same file over the same grid skip reading and resampling. The lazy
+ * coverage produced by the loader is computed into memory before it is cached, tiles in parallel,
+ * so entries hold exactly the decoded size they are weighed at. Coverages larger than the entry
+ * limit are returned lazy and not cached, so that concurrent misses on large coverages do not each
+ * hold a decoded copy on the heap; the caller reads their tiles as it needs them. Entries are held
+ * through soft references, so the JVM can reclaim them under heap pressure before the weight limit
+ * is reached.
+ *
+ * <p>The key includes the file modification time and length, so a rewritten file is never served
+ * from stale entries (which just age out).
+ */
+public class CoverageCache {
+
+  /**
+   * File identity, target grid signature and interpolation method.
+   *
+   * @param path absolute path of the principal file
+   * @param lastModified modification time of the file
+   * @param length length of the file
+   * @param grid CRS, envelope and shape of the target grid
+   * @param interpolation interpolation class and parameters
+   */
+  public record Key(
+      String path, long lastModified, long length, String grid, String interpolation) {
+
+    public static Key of(
+        File file,
+        CoordinateReferenceSystem crs,
+        GridGeometry2D gridGeometry,
+        Interpolation interpolation) {
+      var envelope = gridGeometry.getEnvelope2D();
+      var range = gridGeometry.getGridRange2D();
+      String grid =
+          (crs == null ? "" : crs.toWKT())
+              + "|"
+              + envelope.getMinX()
+              + ","
+              + envelope.getMinY()
+              + ","
+              + envelope.getMaxX()
+              + ","
+              + envelope.getMaxY()
+              + "|"
+              + range.width
+              + "x"
+              + range.height;
+      String method =
+          interpolation.getClass().getName()
+              + ":"
+              + interpolation.getSubsampleBitsH()
+              + ":"
+              + interpolation.getSubsampleBitsV();
+      return new Key(file.getAbsolutePath(), file.lastModified(), file.length(), grid, method);
+    }
+  }
+
+  private final Cache<Key, GridCoverage> cache;
+  private final long maxEntryKBytes;
+  private final ForkJoinPool pool;
+
+  /** As {@link #CoverageCache(long, long, ForkJoinPool)}, with entries up to the whole cache. */
+  public CoverageCache(long maxKBytes, ForkJoinPool pool) {
+    this(maxKBytes, maxKBytes, pool);
+  }
+
+  /**
+   * @param maxKBytes the maximum total decoded size of the cached coverages, in kilobytes
+   * @param maxEntryKBytes the maximum decoded size of a coverage computed into memory and cached,
+   *     in kilobytes
+   * @param pool the pool computing the tiles of the coverages to cache
+   */
+  public CoverageCache(long maxKBytes, long maxEntryKBytes, ForkJoinPool pool) {
+    this.maxEntryKBytes = Math.min(maxKBytes, maxEntryKBytes);
+    this.pool = pool;
+    // a single segment, so that any coverage within the limit can stay in the cache
+    this.cache =
+        CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maxKBytes)
+            .weigher((Weigher<Key, GridCoverage>) (key, value) -> weigh(value))
+            .softValues()
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Return the cached coverage for the key, or produce it with the passed loader, compute it into
+   * memory and cache it if within the entry limit. Concurrent misses on the same key may both load.
+   * Exceptions thrown by the loader are propagated unchanged if unchecked.
+   *
+   * @param metrics receives the time spent computing the coverage into memory
+   */
+  public GridCoverage get(Key key, Callable<GridCoverage> loader, EncodingMetrics metrics) {
+    GridCoverage ret = cache.getIfPresent(key);
+    if (ret != null) {
+      return ret;
+    }
+    try {
+      ret = loader.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new KlabInternalErrorException(e);
+    }
+    if (weigh(ret) > maxEntryKBytes) {
+      return ret;
+    }
+    long start = metrics.begin();
+    ret = materialize(ret);
+    metrics.end(EncodingMetrics.Phase.MATERIALIZE, start);
+    cache.put(key, ret);
+    return ret;
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * A copy of the coverage backed by an image in memory, computing the tiles of the original in
+   * parallel and releasing each from the tile cache once copied. Coverages already in memory are
+   * returned as they are.
+   */
+  private GridCoverage materialize(GridCoverage coverage) {
+
+    if (!(coverage instanceof GridCoverage2D coverage2D)
+        || coverage2D.getRenderedImage() instanceof TiledImage
+        || coverage2D.getRenderedImage() instanceof BufferedImage) {
+      return coverage;
+    }
+
+    RenderedImage image = coverage2D.getRenderedImage();
+    TiledImage held =
+        new TiledImage(
+            image.getMinX(),
+            image.getMinY(),
+            image.getWidth(),
+            image.getHeight(),
+            image.getTileGridXOffset(),
+            image.getTileGridYOffset(),
+            image.getSampleModel(),
+            image.getColorModel());
+    int xTiles = image.getNumXTiles();
+    pool.submit(
+            () ->
+                IntStream.range(0, xTiles * image.getNumYTiles())
+                    .parallel()
+                    .forEach(
+                        i -> {
+                          Raster tile =
+                              image.getTile(
+                                  image.getMinTileX() + i % xTiles,
+                                  image.getMinTileY() + i / xTiles);
+                          synchronized (held) {
+                            held.setData(tile);
+                          }
+                          RasterEncoder.releaseTiles(image, tile.getBounds());
+                        }))
+        .join();
+
+    // no sources: the lazy chain and its tiles can be collected
+    return new GridCoverageFactory()
+        .create(
+            coverage2D.getName(),
+            held,
+            coverage2D.getGridGeometry(),
+            coverage2D.getSampleDimensions(),
+            null,
+            coverage2D.getProperties());
+  }
+
+  /** Decoded size of the coverage image in kilobytes, at least 1. */
+  static int weigh(GridCoverage coverage) {
+    try {
+      RenderedImage image = coverage.getRenderedImage();
+      var sampleModel = image.getSampleModel();
+      long bits =
+          (long) image.getWidth()
+              * image.getHeight()
+              * sampleModel.getNumBands()
+              * DataBuffer.getDataTypeSize(sampleModel.getDataType());
+      return (int) Math.min(Integer.MAX_VALUE, Math.max(1, bits / 8192));
+    } catch (Throwable e) {
+      Logging.INSTANCE.warn("cannot compute decoded size of coverage: " + e.getMessage());
+      return 1;
+    }
+  }
+}
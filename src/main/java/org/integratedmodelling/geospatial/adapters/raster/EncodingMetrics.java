@@ -0,0 +1,202 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.integratedmodelling.common.logging.Logging;
+import org.integratedmodelling.klab.api.scope.ContextScope;
+
+/**
+ * Time and volume of the phases of one encode, collected by the adapters and {@link RasterEncoder}
+ * and published, when the encode is done, to the {@link #getRegistry() registry} and as a debug
+ * notification on the context scope. Instances are thread-safe, as parallel encodes record from
+ * the workers; phase times are summed over all the threads that worked on a phase.
+ *
+ * <p>The default registry publishes to the Micrometer global registry when Micrometer is on the
+ * classpath (as {@code klab.geospatial.encode.phase} timers and {@code klab.geospatial.encode.*}
+ * counters, tagged by adapter) and does nothing otherwise. Another registry can be set with {@link
+ * #setRegistry(Registry)}.
+ */
+public final class EncodingMetrics {
+
+  public enum Phase {
+    /** Fetching remote data (WCS download, STAC item search and retrieval). */
+    DOWNLOAD("download"),
+    /**
+     * Opening the source and reading the window, overview level and layout. Decoding is deferred to
+     * {@link #MATERIALIZE} or {@link #ITERATE}.
+     */
+    READ("read"),
+    /**
+     * Setting up the crop and reprojection to the context grid, done in a single resample (or
+     * approximate warp) and skipped for aligned coverages. The warp itself is computed in {@link
+     * #MATERIALIZE} or {@link #ITERATE}.
+     */
+    RESAMPLE("resample"),
+    /**
+     * Decoding and resampling a whole coverage into memory for the coverage cache, on a cache
+     * miss.
+     */
+    MATERIALIZE("materialize"),
+    /** Decoding the source tiles, interpolating, matching nodata and mixing bands. */
+    ITERATE("iterate"),
+    /** Applying the transform expression. */
+    TRANSFORM("transform"),
+    /** Handing the values to the storage. */
+    WRITE("write");
+
+    private final String label;
+
+    Phase(String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  public enum Counter {
+    BYTES_DOWNLOADED("bytes.downloaded"),
+    CELLS_WRITTEN("cells.written"),
+    NODATA_CELLS("cells.nodata");
+
+    private final String label;
+
+    Counter(String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  /** Receives the totals of each encode. */
+  public interface Registry {
+
+    void record(String adapter, Phase phase, long nanos);
+
+    void count(String adapter, Counter counter, long amount);
+  }
+
+  /** Collects nothing, for callers that do not report. */
+  public static final EncodingMetrics NONE = new EncodingMetrics(null);
+
+  private static volatile Registry registry = createRegistry();
+
+  private final String adapter;
+  private final LongAdder[] times = new LongAdder[Phase.values().length];
+  private final LongAdder[] counts = new LongAdder[Counter.values().length];
+
+  private EncodingMetrics(String adapter) {
+    this.adapter = adapter;
+    for (int i = 0; i < times.length; i++) {
+      times[i] = new LongAdder();
+    }
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  /** Start collecting for an encode by the named adapter. */
+  public static EncodingMetrics start(String adapter) {
+    return new EncodingMetrics(adapter);
+  }
+
+  public boolean isEnabled() {
+    return adapter != null;
+  }
+
+  /** A start time for {@link #end(Phase, long)}, or 0 if not collecting. */
+  public long begin() {
+    return adapter == null ? 0 : System.nanoTime();
+  }
+
+  /** Add the time since {@code start} to the phase. */
+  public void end(Phase phase, long start) {
+    if (adapter != null) {
+      times[phase.ordinal()].add(System.nanoTime() - start);
+    }
+  }
+
+  public void add(Counter counter, long amount) {
+    if (adapter != null) {
+      counts[counter.ordinal()].add(amount);
+    }
+  }
+
+  public long getNanos(Phase phase) {
+    return times[phase.ordinal()].sum();
+  }
+
+  public long getCount(Counter counter) {
+    return counts[counter.ordinal()].sum();
+  }
+
+  /**
+   * Publish the totals to the registry and send them to the scope as a debug notification.
+   *
+   * @param urn the encoded resource, for the notification
+   * @param scope may be null
+   */
+  public void report(String urn, ContextScope scope) {
+
+    if (adapter == null) {
+      return;
+    }
+
+    StringBuilder summary = new StringBuilder("Encoded " + urn + " (" + adapter + "):");
+    for (Phase phase : Phase.values()) {
+      long nanos = getNanos(phase);
+      if (nanos > 0) {
+        registry.record(adapter, phase, nanos);
+        summary
+            .append(" ")
+            .append(phase.getLabel())
+            .append(" ")
+            .append(nanos / 1000000)
+            .append("ms");
+      }
+    }
+    for (Counter counter : Counter.values()) {
+      long count = getCount(counter);
+      registry.count(adapter, counter, count);
+      if (count > 0) {
+        summary.append(", ").append(counter.getLabel()).append(" ").append(count);
+      }
+    }
+
+    if (scope != null) {
+      scope.debug(summary.toString());
+    }
+  }
+
+  public static Registry getRegistry() {
+    return registry;
+  }
+
+  public static void setRegistry(Registry registry) {
+    EncodingMetrics.registry = registry;
+  }
+
+  private static Registry createRegistry() {
+    try {
+      // loaded reflectively so that this class links even without Micrometer
+      Class.forName("io.micrometer.core.instrument.Metrics");
+      return (Registry)
+          Class.forName(EncodingMetrics.class.getPackageName() + ".MicrometerMetricsRegistry")
+              .getDeclaredConstructor()
+              .newInstance();
+    } catch (ClassNotFoundException e) {
+      // no Micrometer
+    } catch (Throwable e) {
+      Logging.INSTANCE.warn("Micrometer unusable, encode metrics will not be exported: " + e);
+    }
+    return new Registry() {
+      @Override
+      public void record(String adapter, Phase phase, long nanos) {}
+
+      @Override
+      public void count(String adapter, Counter counter, long amount) {}
+    };
+  }
+}
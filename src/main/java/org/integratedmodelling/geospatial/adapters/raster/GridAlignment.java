@@ -0,0 +1,77 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import java.awt.geom.AffineTransform;
+import org.geotools.api.coverage.grid.GridGeometry;
+import org.geotools.api.metadata.spatial.PixelOrientation;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.referencing.CRS;
+
+/**
+ * Integer pixel offset between a source grid and a target grid that share CRS, orientation and cell
+ * size, so that target cell (x, y) is exactly source pixel (x + dx, y + dy). When it exists, values
+ * can be copied from the source without any interpolation.
+ *
+ * @param dx column of the source image holding the first target column
+ * @param dy row of the source image holding the first target row
+ */
+public record GridAlignment(int dx, int dy) {
+
+  /** Relative tolerance on cell size. */
+  private static final double SCALE_TOLERANCE = 1.0e-6;
+
+  /** Tolerance on the offset, in cells. */
+  private static final double OFFSET_TOLERANCE = 1.0e-3;
+
+  public static final GridAlignment IDENTITY = new GridAlignment(0, 0);
+
+  /**
+   * The alignment of the target grid on the source grid, or null if the grids are not aligned
+   * (different CRS, rotation, cell size or a fractional offset).
+   */
+  public static GridAlignment of(GridGeometry source, GridGeometry2D target) {
+
+    if (!(source instanceof GridGeometry2D source2D)) {
+      return null;
+    }
+
+    CoordinateReferenceSystem sourceCrs = source2D.getCoordinateReferenceSystem2D();
+    CoordinateReferenceSystem targetCrs = target.getCoordinateReferenceSystem2D();
+    if (sourceCrs == null
+        || targetCrs == null
+        || !(sourceCrs == targetCrs || CRS.equalsIgnoreMetadata(sourceCrs, targetCrs))) {
+      return null;
+    }
+
+    if (!(source2D.getGridToCRS2D(PixelOrientation.UPPER_LEFT) instanceof AffineTransform s)
+        || !(target.getGridToCRS2D(PixelOrientation.UPPER_LEFT) instanceof AffineTransform t)) {
+      return null;
+    }
+
+    if (s.getShearX() != 0
+        || s.getShearY() != 0
+        || t.getShearX() != 0
+        || t.getShearY() != 0
+        || !same(s.getScaleX(), t.getScaleX())
+        || !same(s.getScaleY(), t.getScaleY())) {
+      return null;
+    }
+
+    double dx = (t.getTranslateX() - s.getTranslateX()) / s.getScaleX();
+    double dy = (t.getTranslateY() - s.getTranslateY()) / s.getScaleY();
+    long rdx = Math.round(dx);
+    long rdy = Math.round(dy);
+    if (Math.abs(dx - rdx) > OFFSET_TOLERANCE
+        || Math.abs(dy - rdy) > OFFSET_TOLERANCE
+        || Math.abs(rdx) > Integer.MAX_VALUE
+        || Math.abs(rdy) > Integer.MAX_VALUE) {
+      return null;
+    }
+
+    return new GridAlignment((int) rdx, (int) rdy);
+  }
+
+  private static boolean same(double a, double b) {
+    return Math.abs(a - b) <= Math.abs(a) * SCALE_TOLERANCE;
+  }
+}
@@ -0,0 +1,110 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.api.referencing.operation.MathTransform;
+import org.geotools.coverage.grid.GeneralGridEnvelope;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.integratedmodelling.common.knowledge.GeometryRepository;
+import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.runtime.scale.space.EnvelopeImpl;
+import org.integratedmodelling.klab.runtime.scale.space.ProjectionImpl;
+
+/**
+ * The Geotools view of the regular 2D grid of a geometry: CRS, envelope, grid geometry and shape,
+ * built once per geometry key and shared by all adapters and encodes over the same geometry.
+ * Transforms from source CRSs to the grid CRS are computed on first use and remembered.
+ */
+public final class GridContext {
+
+  private static final Cache<String, GridContext> contexts =
+      CacheBuilder.newBuilder().maximumSize(256).expireAfterAccess(1, TimeUnit.HOURS).build();
+
+  private final CoordinateReferenceSystem crs;
+  private final ReferencedEnvelope envelope;
+  private final GridGeometry2D gridGeometry;
+  private final int width;
+  private final int height;
+  private final Map<CoordinateReferenceSystem, MathTransform> transforms =
+      new ConcurrentHashMap<>();
+
+  private GridContext(Geometry geometry) {
+
+    var dimension = geometry.dimension(Geometry.Dimension.Type.SPACE);
+    if (dimension == null || dimension.getDimensionality() != 2 || !dimension.isRegular()) {
+      throw new KlabInternalErrorException(
+          "raster encoder: cannot create grid for raster projection: shape is not a grid");
+    }
+
+    var space = GeometryRepository.INSTANCE.scale(geometry).getSpace();
+    this.crs = ((ProjectionImpl) space.getProjection()).getCoordinateReferenceSystem();
+    this.envelope = ((EnvelopeImpl) space.getEnvelope()).getJTSEnvelope();
+    this.width = space.getShape().get(0).intValue();
+    this.height = space.getShape().get(1).intValue();
+    this.gridGeometry =
+        new GridGeometry2D(
+            new GeneralGridEnvelope(new int[] {0, 0}, new int[] {width, height}, false),
+            envelope);
+  }
+
+  /**
+   * The context for the passed geometry, which must have a regular 2D spatial extent.
+   *
+   * @throws KlabInternalErrorException if the geometry is not a grid
+   */
+  public static GridContext of(Geometry geometry) {
+    try {
+      return contexts.get(geometry.key(), () -> new GridContext(geometry));
+    } catch (UncheckedExecutionException | ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new KlabInternalErrorException(e.getCause());
+    }
+  }
+
+  public CoordinateReferenceSystem getCrs() {
+    return crs;
+  }
+
+  public ReferencedEnvelope getEnvelope() {
+    return envelope;
+  }
+
+  public GridGeometry2D getGridGeometry() {
+    return gridGeometry;
+  }
+
+  /** Number of columns. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Number of rows. */
+  public int getHeight() {
+    return height;
+  }
+
+  /** The transform from the passed CRS to the grid CRS, identity if they are the same. */
+  public MathTransform getTransformFrom(CoordinateReferenceSystem source) {
+    return transforms.computeIfAbsent(
+        source,
+        s -> {
+          try {
+            return CRS.findMathTransform(s, crs, true);
+          } catch (FactoryException e) {
+            throw new KlabInternalErrorException(e);
+          }
+        });
+  }
+}
@@ -0,0 +1,25 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import io.micrometer.core.instrument.Metrics;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes encode metrics to the Micrometer global registry, which the hosting service binds to
+ * its own registries.
+ *
+ * <p>Only instantiated reflectively by {@link EncodingMetrics} when Micrometer is on the classpath.
+ */
+final class MicrometerMetricsRegistry implements EncodingMetrics.Registry {
+
+  @Override
+  public void record(String adapter, EncodingMetrics.Phase phase, long nanos) {
+    Metrics.timer("klab.geospatial.encode.phase", "adapter", adapter, "phase", phase.getLabel())
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void count(String adapter, EncodingMetrics.Counter counter, long amount) {
+    Metrics.counter("klab.geospatial.encode." + counter.getLabel(), "adapter", adapter)
+        .increment(amount);
+  }
+}
@@ -0,0 +1,195 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import java.awt.image.DataBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.coverage.NoDataContainer;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.util.CoverageUtilities;
+import org.integratedmodelling.geospatial.adapters.RasterAdapter;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+
+/**
+ * Precomputed nodata test for one band of a coverage, working on primitives. Values come from the
+ * resource and URN parameters and from the nodata declared by the coverage itself (sample dimension
+ * and GeoTIFF nodata tag). Integer rasters with a compact set of nodata values use a bitset;
+ * everything else compares against a small array, also matching at float precision so that float
+ * rasters with a double-declared nodata are caught.
+ *
+ * <p>Values beyond +/-1.0E35 are always considered nodata, which catches most undeclared fill
+ * values and none of the good data.
+ */
+public final class NodataMatcher {
+
+  private static final double EXTREME_VALUE = 1.0E35;
+  private static final int MAX_BITSET_RANGE = 1 << 16;
+
+  private final double[] values;
+  private final float[] floatValues;
+  private final BitSet bits;
+  private final long bitsOffset;
+
+  private NodataMatcher(double[] values, boolean integral) {
+    this.values = values;
+    this.floatValues = new float[values.length];
+    for (int i = 0; i < values.length; i++) {
+      floatValues[i] = (float) values[i];
+    }
+    BitSet bitset = null;
+    long offset = 0;
+    if (integral && values.length > 1) {
+      long min = (long) values[0];
+      long max = (long) values[values.length - 1];
+      if (max - min < MAX_BITSET_RANGE) {
+        bitset = new BitSet((int) (max - min + 1));
+        for (double v : values) {
+          bitset.set((int) ((long) v - min));
+        }
+        offset = min;
+      }
+    }
+    this.bits = bitset;
+    this.bitsOffset = offset;
+  }
+
+  /**
+   * Build the matchers for all bands of the passed coverage.
+   *
+   * @param resource the resource, whose parameters may declare a nodata value
+   * @param urnParameters the parameters resulting from the URN, overriding the resource's
+   * @param coverage the coverage being encoded
+   * @return one matcher per band
+   */
+  public static NodataMatcher[] create(
+      Resource resource, Parameters<String> urnParameters, GridCoverage coverage) {
+
+    Set<Double> declared = new LinkedHashSet<>();
+    for (Parameters<String> parameters : Arrays.asList(resource.getParameters(), urnParameters)) {
+      if (parameters == null) {
+        continue;
+      }
+      for (String key : new String[] {"nodata", RasterAdapter.NODATA_PARAM}) {
+        if (parameters.get(key) instanceof Number number) {
+          declared.add(number.doubleValue());
+        } else if (parameters.get(key) instanceof String string && !string.isBlank()) {
+          try {
+            declared.add(Double.parseDouble(string.trim()));
+          } catch (NumberFormatException e) {
+            // ignore, validation should have caught it
+          }
+        }
+      }
+    }
+
+    if (coverage instanceof GridCoverage2D coverage2D) {
+      NoDataContainer container = CoverageUtilities.getNoDataProperty(coverage2D);
+      if (container != null && container.getAsArray() != null) {
+        for (double d : container.getAsArray()) {
+          declared.add(d);
+        }
+      }
+    }
+
+    int dataType = coverage.getRenderedImage().getSampleModel().getDataType();
+    boolean integralType =
+        dataType == DataBuffer.TYPE_BYTE
+            || dataType == DataBuffer.TYPE_SHORT
+            || dataType == DataBuffer.TYPE_USHORT
+            || dataType == DataBuffer.TYPE_INT;
+
+    NodataMatcher[] ret = new NodataMatcher[coverage.getNumSampleDimensions()];
+    for (int band = 0; band < ret.length; band++) {
+      Set<Double> values = new LinkedHashSet<>(declared);
+      double[] bandNodata = coverage.getSampleDimension(band).getNoDataValues();
+      if (bandNodata != null) {
+        for (double d : bandNodata) {
+          values.add(d);
+        }
+      }
+      ret[band] = of(values, integralType);
+    }
+    return ret;
+  }
+
+  /**
+   * Create a matcher for the passed values.
+   *
+   * @param nodata the nodata values; NaN is ignored as it is always nodata
+   * @param integralType whether the raster has integer samples, enabling the bitset test
+   */
+  public static NodataMatcher of(Set<Double> nodata, boolean integralType) {
+    double[] values =
+        nodata.stream().mapToDouble(Double::doubleValue).filter(d -> !Double.isNaN(d)).toArray();
+    Arrays.sort(values);
+    boolean integral = integralType;
+    for (double v : values) {
+      if (v != Math.rint(v) || Double.isInfinite(v)) {
+        integral = false;
+        break;
+      }
+    }
+    return new NodataMatcher(values, integral);
+  }
+
+  /** True if the value is NaN, extreme or one of the nodata values for the band. */
+  public boolean matches(double value) {
+    if (Double.isNaN(value) || value < -EXTREME_VALUE || value > EXTREME_VALUE) {
+      return true;
+    }
+    if (bits != null) {
+      long index = (long) value - bitsOffset;
+      return value == Math.rint(value)
+          && index >= 0
+          && index < bits.length()
+          && bits.get((int) index);
+    }
+    for (int i = 0; i < values.length; i++) {
+      if (value == values[i] || (float) value == floatValues[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Replace every nodata value in the first {@code length} elements with NaN. */
+  public void apply(double[] data, int length) {
+    for (int i = 0; i < length; i++) {
+      if (matches(data[i])) {
+        data[i] = Double.NaN;
+      }
+    }
+  }
+
+  /**
+   * Replace every nodata value in the first {@code length} elements of integer samples with
+   * {@code replacement}.
+   */
+  public void apply(int[] data, int length, int replacement) {
+    if (bits == null && values.length == 0) {
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      if (matches(data[i])) {
+        data[i] = replacement;
+      }
+    }
+  }
+
+  public double[] getValues() {
+    return values.clone();
+  }
+
+  /** True if values are tested against a bitset rather than one by one. */
+  boolean usesBitset() {
+    return bits != null;
+  }
+
+  @Override
+  public String toString() {
+    return "NodataMatcher" + Arrays.toString(values);
+  }
+}
@@ -0,0 +1,133 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import java.io.IOException;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.api.referencing.operation.TransformException;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.integratedmodelling.common.logging.Logging;
+
+/**
+ * Chooses the pyramid level to read from a raster file for a target grid: the coarsest level
+ * (internal GeoTIFF overview or external {@code .ovr} sidecar, both exposed by the reader as
+ * resolution levels) whose resolution is still at least as fine as the target's, measured in the
+ * native CRS of the file. The result is a read grid over the target area at exactly the level's
+ * resolution, so that the reader decodes that level and nothing finer. The read grid is widened to
+ * whole tiles of the file, so that the tiles of every read line up with the file's own and can be
+ * shared in the {@link TileStore} by reads for different contexts.
+ */
+public final class OverviewSelector {
+
+  /** Relative slack allowed when comparing resolutions, to absorb rounding in the levels. */
+  private static final double TOLERANCE = 0.01;
+
+  /**
+   * The chosen level.
+   *
+   * @param level the index of the level, 0 being full resolution
+   * @param levels the number of levels available
+   * @param readGeometry the grid to request from the reader, in the native CRS
+   */
+  public record Selection(int level, int levels, GridGeometry2D readGeometry) {}
+
+  private OverviewSelector() {}
+
+  /**
+   * Select the level for the target grid.
+   *
+   * @return the selection, or null if the target does not intersect the raster or its resolution
+   *     cannot be expressed in the native CRS
+   */
+  public static Selection select(GridCoverage2DReader reader, GridGeometry2D target) {
+
+    try {
+
+      CoordinateReferenceSystem nativeCrs = reader.getCoordinateReferenceSystem();
+      ReferencedEnvelope nativeEnvelope = new ReferencedEnvelope(reader.getOriginalEnvelope());
+      ReferencedEnvelope targetEnvelope =
+          new ReferencedEnvelope(target.getEnvelope2D()).transform(nativeCrs, true);
+
+      var range = target.getGridRange2D();
+      double targetResX = targetEnvelope.getWidth() / range.width;
+      double targetResY = targetEnvelope.getHeight() / range.height;
+
+      double[][] levels = reader.getResolutionLevels();
+      if (levels == null || levels.length == 0) {
+        return null;
+      }
+
+      int level = 0;
+      for (int i = 1; i < levels.length; i++) {
+        if (levels[i][0] <= targetResX * (1 + TOLERANCE)
+            && levels[i][1] <= targetResY * (1 + TOLERANCE)
+            && levels[i][0] >= levels[level][0]) {
+          level = i;
+        }
+      }
+
+      ReferencedEnvelope readEnvelope =
+          new ReferencedEnvelope(targetEnvelope.intersection(nativeEnvelope), nativeCrs);
+      if (readEnvelope.isEmpty()) {
+        return null;
+      }
+
+      // the read window in cells of the level, counted from the upper left corner of the file
+      double resX = levels[level][0];
+      double resY = levels[level][1];
+      int levelWidth = Math.max(1, (int) Math.round(nativeEnvelope.getWidth() / resX));
+      int levelHeight = Math.max(1, (int) Math.round(nativeEnvelope.getHeight() / resY));
+      var layout = reader.getImageLayout();
+      int tileWidth = Math.max(1, layout == null ? 1 : layout.getTileWidth(null));
+      int tileHeight = Math.max(1, layout == null ? 1 : layout.getTileHeight(null));
+      int[] columns =
+          tiles(
+              (readEnvelope.getMinX() - nativeEnvelope.getMinX()) / resX,
+              (readEnvelope.getMaxX() - nativeEnvelope.getMinX()) / resX,
+              tileWidth,
+              levelWidth);
+      int[] rows =
+          tiles(
+              (nativeEnvelope.getMaxY() - readEnvelope.getMaxY()) / resY,
+              (nativeEnvelope.getMaxY() - readEnvelope.getMinY()) / resY,
+              tileHeight,
+              levelHeight);
+
+      // whole cells of the level, so that the requested resolution is exactly the level's
+      readEnvelope =
+          new ReferencedEnvelope(
+              nativeEnvelope.getMinX() + columns[0] * resX,
+              nativeEnvelope.getMinX() + columns[1] * resX,
+              nativeEnvelope.getMaxY() - rows[1] * resY,
+              nativeEnvelope.getMaxY() - rows[0] * resY,
+              nativeCrs);
+
+      return new Selection(
+          level,
+          levels.length,
+          new GridGeometry2D(
+              new GridEnvelope2D(0, 0, columns[1] - columns[0], rows[1] - rows[0]),
+              readEnvelope));
+
+    } catch (IOException | FactoryException | TransformException | RuntimeException e) {
+      Logging.INSTANCE.warn("cannot select overview level, reading default: " + e.getMessage());
+    }
+
+    return null;
+  }
+
+  /**
+   * The cells [from, to) covering the passed fractional cell range, widened to whole tiles and
+   * clipped to the extent of the level.
+   */
+  static int[] tiles(double from, double to, int tileSize, int extent) {
+    // absorb rounding in the envelopes before snapping
+    int first = (int) Math.floor(from + 1.0e-6);
+    int last = (int) Math.ceil(to - 1.0e-6);
+    first = Math.max(0, Math.floorDiv(first, tileSize) * tileSize);
+    last = Math.min(extent, Math.floorDiv(last + tileSize - 1, tileSize) * tileSize);
+    return last > first ? new int[] {first, last} : new int[] {first, Math.min(extent, first + 1)};
+  }
+}
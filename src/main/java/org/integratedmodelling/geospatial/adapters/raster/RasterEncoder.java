@@ -13,45 +13,63 @@
  */
 package org.integratedmodelling.geospatial.adapters.raster;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import groovy.lang.Binding;
 import groovy.lang.GroovyShell;
 import groovy.lang.Script;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongFunction;
 
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.eclipse.imagen.*;
-import org.eclipse.imagen.iterator.RandomIter;
-import org.eclipse.imagen.iterator.RandomIterFactory;
 import org.geotools.api.coverage.grid.GridCoverage;
-import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
-import org.geotools.coverage.grid.GeneralGridEnvelope;
+import org.geotools.api.parameter.GeneralParameterValue;
+import org.geotools.api.parameter.ParameterValue;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
-import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.geotools.coverage.grid.io.OverviewPolicy;
 import org.geotools.coverage.processing.Operations;
-import org.geotools.gce.geotiff.GeoTiffFormat;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.util.factory.Hints;
+import org.geotools.referencing.CRS;
 import org.integratedmodelling.common.knowledge.GeometryRepository;
+import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.geospatial.adapters.RasterAdapter;
+import org.integratedmodelling.geospatial.library.RasterAuxXml;
+import org.integratedmodelling.geospatial.utils.GeospatialEvents;
 import org.integratedmodelling.klab.api.collections.Parameters;
 import org.integratedmodelling.klab.api.configuration.Configuration;
+import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.exceptions.KlabIOException;
 import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
 import org.integratedmodelling.klab.api.exceptions.KlabResourceAccessException;
+import org.integratedmodelling.klab.api.exceptions.KlabValidationException;
 import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.knowledge.Resource;
-import org.integratedmodelling.klab.api.knowledge.observation.scale.Scale;
 import org.integratedmodelling.klab.api.scope.ContextScope;
 import org.integratedmodelling.klab.api.services.runtime.Notification;
 import org.integratedmodelling.klab.common.data.ExportFileCache;
-import org.integratedmodelling.klab.runtime.scale.space.EnvelopeImpl;
-import org.integratedmodelling.klab.runtime.scale.space.ProjectionImpl;
 import org.integratedmodelling.klab.utilities.Utils;
 
 
@@ -62,11 +80,93 @@ import org.integratedmodelling.klab.utilities.Utils;
 public enum RasterEncoder {
   INSTANCE;
 
+  /**
+   * How the encoding work is distributed. Each adapter chooses its mode when calling {@link
+   * #encodeFromCoverage(Resource, Parameters, GridCoverage, Geometry, Storage.Scanner,
+   * ContextScope, EncodingMode)}.
+   */
+  public enum EncodingMode {
+    /** One thread walks the whole grid. */
+    SEQUENTIAL,
+    /**
+     * Column stripes are decoded, interpolated and post-processed concurrently on a fork/join pool,
+     * each into its own segment of the output, and handed to the scanner in fill order.
+     */
+    PARALLEL
+  }
+
   // TODO substitute these with a more standardizable component option API
   private static final String OPTION_DO_NOT_CREATE_INDIVIDUAL_FOLDERS = "raster.individual.folders";
   private static final String OPTION_DO_NOT_ZIP_MULTIPLE_FILES =
       "raster.do.not.zip individual.files";
   private ExportFileCache cache;
+  /** Compiled Groovy transforms, by expression text. */
+  private final Cache<String, Class<? extends Script>> transformationScripts =
+      CacheBuilder.newBuilder().maximumSize(256).build();
+  private final ForkJoinPool encodingPool =
+      new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  /** Total decoded size of the resampled coverages kept in memory, overridable as a property. */
+  private final long maxCachedCoverageMBytes =
+      Long.getLong("klab.geospatial.coverage.cache.mb", 512);
+
+  /**
+   * Memory for the buffers of one encode, which bounds the size of the segments decoded at once
+   * regardless of the grid size.
+   */
+  private final long encodingBudget =
+      Long.getLong("klab.geospatial.encoding.budget.mb", 256) * 1024 * 1024;
+
+  /**
+   * Coverages larger than the encoding budget are not computed into memory but streamed by the
+   * encoder, so each cache miss holds at most that much on the heap besides the cached entries.
+   */
+  private final CoverageCache coverageCache =
+      new CoverageCache(maxCachedCoverageMBytes * 1024, encodingBudget / 1024, encodingPool);
+
+  /** Statistics of recent encodes, by resource, URN parameters and geometry. */
+  private final Cache<String, RasterStatistics> statistics =
+      CacheBuilder.newBuilder().maximumSize(1024).expireAfterAccess(1, TimeUnit.HOURS).build();
+
+  /** Per-band statistics of whole files, by file identity, as read from or written to sidecars. */
+  private final Cache<String, RasterStatistics[]> fileStatistics =
+      CacheBuilder.newBuilder().maximumSize(256).expireAfterAccess(1, TimeUnit.HOURS).build();
+
+  /**
+   * Compute the file statistics in the background when a file without them is first read,
+   * overridable as a property.
+   */
+  private final boolean statisticsOnAccess =
+      Boolean.parseBoolean(System.getProperty("klab.geospatial.statistics.onaccess", "true"));
+
+  private final Set<String> pendingStatistics = ConcurrentHashMap.newKeySet();
+  private final ExecutorService statisticsExecutor =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "raster-statistics");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Maximum error, in source pixels, of the approximate warp used to reproject coverages. Zero
+   * disables it and reprojects with the exact transform for each pixel.
+   */
+  private final double warpTolerance =
+      Double.parseDouble(System.getProperty("klab.geospatial.warp.tolerance", "0.125"));
+
+  /** Decoded blocks kept when encoding in a fill curve other than row or column major. */
+  private static final int MAX_CACHED_BLOCKS = 64;
+
+  /** Open readers on local files, disposed after ten idle minutes. */
+  private final ReaderPool readerPool = new ReaderPool(64, 10);
+
+  /** Disk space for decoded tiles, overridable as a property. */
+  private final long tileStoreQuota =
+      Long.getLong("klab.geospatial.tilestore.quota.mb", 4096) * 1024 * 1024;
+
+  private TileStore tileStore;
+  private boolean tileStoreSet;
 
   public ExportFileCache getCache() {
     if (cache == null) {
@@ -79,9 +179,59 @@ public enum RasterEncoder {
     return cache;
   }
 
+  /**
+   * The store of decoded tiles shared by all adapters, in the component cache directory. A zero
+   * quota disables it.
+   */
+  public synchronized TileStore getTileStore() {
+    if (!tileStoreSet) {
+      if (tileStoreQuota > 0) {
+        tileStore =
+            new TileStore(
+                new File(
+                    Configuration.INSTANCE.getDataPath("klab.component.geospatial/cache"),
+                    "tiles"),
+                tileStoreQuota);
+      }
+      tileStoreSet = true;
+    }
+    return tileStore;
+  }
+
+  /**
+   * Use the passed tile store instead of the one in the component cache directory, e.g. one in a
+   * temporary directory. Null disables storing tiles.
+   */
+  public synchronized void setTileStore(TileStore tileStore) {
+    this.tileStore = tileStore;
+    this.tileStoreSet = true;
+  }
+
+  /**
+   * The geometry of the shard that the scanner is filling when the runtime has split the context
+   * and the shard is itself a regular grid, otherwise the passed geometry. Adapters that read and
+   * encode for the returned geometry only touch the source window of their own shard, so shards
+   * can run concurrently with memory proportional to their size.
+   */
+  public Geometry getShardGeometry(Storage.Scanner filler, Geometry geometry) {
+    var shard = filler.shard();
+    if (shard == null || shard.getGeometry() == null) {
+      return geometry;
+    }
+    var space = shard.getGeometry().dimension(Geometry.Dimension.Type.SPACE);
+    return space != null && space.getDimensionality() == 2 && space.isRegular()
+        ? shard.getGeometry()
+        : geometry;
+  }
+
   /**
    * Take a Geotools coverage and do the rest. Separated so other adapters with raster result (WCS,
-   * STAC, OpenEO) can use it as is. Assumes that the fill curve is XY.
+   * STAC, OpenEO) can use it as is. Values are produced in the fill curve of the scanner.
+   *
+   * <p>The scanner can be of double, float or int type. Integer scanners receive the integer
+   * samples of integer rasters as they are read, with no conversion to double, unless a band mixer
+   * or a transform is applied; nodata becomes {@link Integer#MIN_VALUE}. Keyed storage holds
+   * concepts, which only the runtime can map raster codes to, so it is not filled here.
    *
    * @param resource
    * @param urnParameters
@@ -89,32 +239,135 @@ public enum RasterEncoder {
    * @param geometry
    * @param filler
    * @param scope only for notifications
+   * @return the statistics of the values written, also available later through {@link
+   *     #getStatistics(Resource, Parameters, Geometry)}
    */
-  public void encodeFromCoverage(
+  public RasterStatistics encodeFromCoverage(
       Resource resource,
       Parameters<String> urnParameters,
       GridCoverage coverage,
       Geometry geometry,
-      Storage.DoubleScanner filler,
+      Storage.Scanner filler,
       ContextScope scope) {
+    return encodeFromCoverage(
+        resource, urnParameters, coverage, geometry, filler, scope, EncodingMode.SEQUENTIAL);
+  }
+
+  /**
+   * As {@link #encodeFromCoverage(Resource, Parameters, GridCoverage, Geometry, Storage.Scanner,
+   * ContextScope)} with an explicit encoding mode.
+   *
+   * @param resource
+   * @param urnParameters
+   * @param coverage
+   * @param geometry
+   * @param filler
+   * @param scope only for notifications
+   * @param mode sequential or parallel
+   * @return the statistics of the values written
+   */
+  public RasterStatistics encodeFromCoverage(
+      Resource resource,
+      Parameters<String> urnParameters,
+      GridCoverage coverage,
+      Geometry geometry,
+      Storage.Scanner filler,
+      ContextScope scope,
+      EncodingMode mode) {
+    return encodeFromCoverage(
+        resource, urnParameters, coverage, geometry, filler, scope, mode, EncodingMetrics.NONE);
+  }
+
+  /**
+   * As {@link #encodeFromCoverage(Resource, Parameters, GridCoverage, Geometry, Storage.Scanner,
+   * ContextScope, EncodingMode)}, recording the time spent iterating, transforming and writing
+   * and the number of cells written and of nodata cells. The metrics are not reported.
+   *
+   * @param resource
+   * @param urnParameters
+   * @param coverage
+   * @param geometry
+   * @param filler
+   * @param scope only for notifications
+   * @param mode sequential or parallel
+   * @param metrics collects the phases of the encode
+   * @return the statistics of the values written
+   */
+  public RasterStatistics encodeFromCoverage(
+      Resource resource,
+      Parameters<String> urnParameters,
+      GridCoverage coverage,
+      Geometry geometry,
+      Storage.Scanner filler,
+      ContextScope scope,
+      EncodingMode mode,
+      EncodingMetrics metrics) {
+
+    // outside the try, so that an invalid grid fails here and not while recording the event
+    var grid = GridContext.of(geometry);
+    var event = new GeospatialEvents.Encode();
+    event.begin();
+    try {
+      RasterStatistics ret =
+          encode(resource, urnParameters, coverage, geometry, filler, scope, mode, metrics);
+      metrics.add(EncodingMetrics.Counter.CELLS_WRITTEN, ret.getCount() + ret.getNodataCount());
+      metrics.add(EncodingMetrics.Counter.NODATA_CELLS, ret.getNodataCount());
+      statistics.put(statisticsKey(resource, urnParameters, geometry), ret);
+      return ret;
+    } finally {
+      event.end();
+      if (event.shouldCommit()) {
+        event.urn = resource.getUrn();
+        event.gridWidth = grid.getWidth();
+        event.gridHeight = grid.getHeight();
+        event.bands = coverage.getNumSampleDimensions();
+        event.mode = mode.name();
+        event.storage = filler.getClass().getSimpleName();
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * The statistics of the last encode of a resource over a geometry, computed while the values
+   * were written, so that colormaps and legends need not scan the storage again.
+   *
+   * @return the statistics, or null if the resource was not encoded recently over the geometry
+   */
+  public RasterStatistics getStatistics(
+      Resource resource, Parameters<String> urnParameters, Geometry geometry) {
+    return statistics.getIfPresent(statisticsKey(resource, urnParameters, geometry));
+  }
+
+  private static String statisticsKey(
+      Resource resource, Parameters<String> urnParameters, Geometry geometry) {
+    return resource.getUrn() + "|" + urnParameters + "|" + geometry.key();
+  }
+
+  private RasterStatistics encode(
+      Resource resource,
+      Parameters<String> urnParameters,
+      GridCoverage coverage,
+      Geometry geometry,
+      Storage.Scanner filler,
+      ContextScope scope,
+      EncodingMode mode,
+      EncodingMetrics metrics) {
 
     /*
      * Set the data from the transformed coverage
      */
     RenderedImage image = coverage.getRenderedImage();
-    RandomIter iterator = RandomIterFactory.create(image, null);
-    var scale = GeometryRepository.INSTANCE.scale(geometry);
+    var grid = GridContext.of(geometry);
     int band = 0;
     if (urnParameters.containsKey(RasterAdapter.BAND_PARAM)) {
       band = urnParameters.get(RasterAdapter.BAND_PARAM, Integer.class);
     } else {
-      resource.getParameters().get(RasterAdapter.BAND_PARAM, 0);
+      band = resource.getParameters().get(RasterAdapter.BAND_PARAM, 0);
     }
     int nBands = coverage.getNumSampleDimensions();
-    Set<Double> nodata = getNodata(resource, coverage, band);
-    GroovyShell shell = null;
-    Binding binding = null;
-    Script transformation = null;
+    NodataMatcher[] nodata = NodataMatcher.create(resource, urnParameters, coverage);
+    String transformExpression = null;
 
     if (resource.getParameters().get(RasterAdapter.TRANSFORM_PARAM) != null
         && !resource
@@ -123,189 +376,788 @@ public enum RasterEncoder {
             .toString()
             .trim()
             .isEmpty()) {
-      binding = new Binding();
-      shell = new GroovyShell(binding);
-      transformation =
-          shell.parse(resource.getParameters().get(RasterAdapter.TRANSFORM_PARAM).toString());
+      transformExpression = resource.getParameters().get(RasterAdapter.TRANSFORM_PARAM).toString();
     }
 
-    BandMixing.Operation bandMixer = null;
+    BandMixing.Mixer bandMixer = null;
     if (resource.getParameters().contains(RasterAdapter.BANDMIXER_PARAM)) {
-      try {
-        bandMixer =
-            BandMixing.Operation.valueOf(
-                resource.getParameters().get(RasterAdapter.BANDMIXER_PARAM, String.class));
-      } catch (IllegalArgumentException e) {
+      String mixing = resource.getParameters().get(RasterAdapter.BANDMIXER_PARAM, String.class);
+      bandMixer = BandMixing.Mixer.parse(mixing, nBands).orElse(null);
+      if (bandMixer == null) {
         scope.error(
             Notification.error(
-                "Unsupported band mixing operation "
-                    + resource.getParameters().get(RasterAdapter.BANDMIXER_PARAM, String.class)));
+                "Unsupported band mixing operation or expression "
+                    + mixing
+                    + ": use one of "
+                    + BandMixing.implementedOperations
+                    + " or arithmetic over b1..b"
+                    + nBands));
       }
     }
 
-    var xy = scale.getSpace().getShape();
-    var xx = xy.get(0);
-    var yy = xy.get(1);
-    //    var filler = builder.scanner(Storage.DoubleScanner.class);
+    if (bandMixer == null && (band < 0 || band >= nBands)) {
+      throw new KlabValidationException(
+          "band " + band + " requested from a coverage with " + nBands + " bands");
+    }
 
-    for (int x = 0; x < xx; x++) {
-      for (int y = 0; y < yy; y++) {
+    int xx = grid.getWidth();
+    int yy = grid.getHeight();
 
-        double value =
-            bandMixer == null
-                ? getCellValue(iterator, x, y, band)
-                : getCellMixerValue(iterator, x, y, bandMixer, nBands);
+    /*
+     * Integer samples of a single band go straight to integer storage.
+     */
+    CellWriter writer = CellWriter.of(filler);
+    RasterStatistics statistics = new RasterStatistics();
+    boolean integral =
+        writer.isIntegral()
+            && bandMixer == null
+            && transformExpression == null
+            && isIntegral(image.getSampleModel().getDataType());
 
-        // this is cheeky but will catch most of the nodata and
-        // none of the good data
-        // FIXME see if this is really necessary
-        if (value < -1.0E35 || value > 1.0E35) {
-          value = Double.NaN;
-        }
+    /*
+     * A coverage that was resampled to the context grid, or that is already aligned to it, is
+     * read pixel by pixel at the corresponding offset; anything else is assumed to match the
+     * context grid from its first pixel.
+     */
+    GridAlignment alignment = GridAlignment.of(coverage.getGridGeometry(), grid.getGridGeometry());
+    if (alignment == null) {
+      alignment = GridAlignment.IDENTITY;
+    }
 
-        for (double nd : nodata) {
-          if (Utils.Numbers.equal(value, nd)) {
-            value = Double.NaN;
-            break;
-          }
-        }
+    /*
+     * Visit the grid in the order of the storage fill curve. Column-major (D2_XY) and row-major
+     * curves map stripes of whole columns or rows to contiguous runs of the output; stripe
+     * boundaries follow the image tile grid so that each tile is fetched once per stripe and its
+     * samples are pulled with a single bulk call. Any other curve reads through a small cache of
+     * decoded blocks.
+     */
+    LongFunction<long[]> offsets = getOffsets(filler);
+    Traversal traversal = Traversal.detect(offsets, xx, yy);
 
-        if (transformation != null && Utils.Data.isData(value)) {
-          binding.setVariable("self", value);
-          Object o = transformation.run();
-          if (o instanceof Number) {
-            value = ((Number) o).doubleValue();
-          } else {
-            value = Double.NaN;
-          }
+    if (traversal == Traversal.MAPPED) {
+      int blockWidth = Math.max(1, Math.min(image.getTileWidth(), xx));
+      int blockHeight = Math.max(1, Math.min(image.getTileHeight(), yy));
+      var encoder =
+          new StripeEncoder(
+              image,
+              alignment,
+              blockWidth * blockHeight,
+              band,
+              bandMixer,
+              nodata,
+              transformExpression,
+              metrics);
+      encodeMapped(encoder, offsets, xx, yy, blockWidth, blockHeight, writer, statistics);
+      return statistics;
+    }
+
+    boolean columns = traversal == Traversal.COLUMNS;
+
+    /*
+     * Size segments to the memory budget: the buffers of all the segments in flight (input
+     * planes, mix and output) must fit in it, whatever the size of the grid.
+     */
+    int inFlight = mode == EncodingMode.PARALLEL ? 2 * encodingPool.getParallelism() : 1;
+    int buffersPerCell = (bandMixer == null ? 1 : bandMixer.getBands().length) + 2;
+    long maxCells =
+        Math.max(1024, encodingBudget / ((integral ? 4L : 8L) * buffersPerCell * inFlight));
+    List<Segment> segments =
+        columns
+            ? segments(
+                true,
+                xx,
+                yy,
+                image.getTileWidth(),
+                image.getTileGridXOffset() - alignment.dx(),
+                maxCells)
+            : segments(
+                false,
+                yy,
+                xx,
+                image.getTileHeight(),
+                image.getTileGridYOffset() - alignment.dy(),
+                maxCells);
+    int segmentCells = 1;
+    for (Segment segment : segments) {
+      segmentCells = Math.max(segmentCells, segment.width() * segment.height());
+    }
+    var encoder =
+        new StripeEncoder(
+            image, alignment, segmentCells, band, bandMixer, nodata, transformExpression, metrics);
+
+    if (mode == EncodingMode.PARALLEL && segments.size() > 1) {
+
+      /*
+       * Keep a bounded window of segments in flight so that memory stays proportional to the
+       * number of workers, and drain them in order as the scanner is sequential.
+       */
+      Deque<ForkJoinTask<Runnable>> pending = new ArrayDeque<>(inFlight);
+      int next = 0;
+      int written = 0;
+      while (next < segments.size() || !pending.isEmpty()) {
+        while (next < segments.size() && pending.size() < inFlight) {
+          Segment segment = segments.get(next++);
+          pending.add(
+              encodingPool.submit(
+                  () -> segment.encode(encoder, columns, integral, writer, statistics, false)));
         }
+        pending.removeFirst().join().run();
+        segments.get(written++).release(image, alignment);
+      }
+
+    } else {
 
-        filler.add(value);
+      for (Segment segment : segments) {
+        segment.encode(encoder, columns, integral, writer, statistics, true).run();
+        segment.release(image, alignment);
       }
     }
-  }
 
-  private double getCellValue(RandomIter iterator, long x, long y, int band) {
-    return iterator.getSampleDouble((int) x, (int) y, band);
+    return statistics;
   }
 
-  private double getCellMixerValue(
-      RandomIter iterator, long x, long y, BandMixing.Operation operation, int nBands) {
-    return switch (operation) {
-      case MAX_VALUE -> getMaxCellValue(iterator, x, y, nBands);
-      case MIN_VALUE -> getMinCellValue(iterator, x, y, nBands);
-      case AVG_VALUE -> getAvgCellValue(iterator, x, y, nBands);
-      case SUM_VALUE -> getSumCellValue(iterator, x, y, nBands);
-      case BAND_MAX_VALUE -> getBandOfMaxValue(iterator, x, y, nBands);
-      case BAND_MIN_VALUE -> getBandOfMinValue(iterator, x, y, nBands);
-      default -> Double.NaN;
-    };
+  private static boolean isIntegral(int dataType) {
+    return dataType == DataBuffer.TYPE_BYTE
+        || dataType == DataBuffer.TYPE_SHORT
+        || dataType == DataBuffer.TYPE_USHORT
+        || dataType == DataBuffer.TYPE_INT;
   }
 
-  private double getBandOfMaxValue(RandomIter iterator, long x, long y, int nBands) {
-    double value = Double.NaN;
-    double maxValue = Double.MIN_VALUE;
-    for (int i = 0; i < nBands; i++) {
-      double currentValue = iterator.getSampleDouble((int) x, (int) y, i);
-      if (currentValue == Double.NaN) {
-        continue;
+  /**
+   * A rectangle of the grid encoded in one go, whose values are contiguous in the output. The
+   * last segment of each tile-aligned stripe carries the stripe, so that the tiles computed for
+   * it can be dropped from the tile cache once written.
+   */
+  private record Segment(int x0, int y0, int width, int height, Rectangle stripe) {
+
+    /**
+     * Encode the segment and return the action that writes it and adds its values to the
+     * statistics, to be run in fill order. With {@code reuse} the values stay in the single output
+     * buffer of the encoder, which is only safe when the writer runs before the next segment is
+     * encoded.
+     */
+    Runnable encode(
+        StripeEncoder encoder,
+        boolean columns,
+        boolean integral,
+        CellWriter writer,
+        RasterStatistics statistics,
+        boolean reuse) {
+      int length = width * height;
+      EncodingMetrics metrics = encoder.metrics;
+      if (integral) {
+        int[] values =
+            encoder.encodeIntegral(
+                x0, y0, width, height, columns, reuse ? encoder.intOutput() : null);
+        return () -> {
+          long start = metrics.begin();
+          writer.write(values, length);
+          metrics.end(EncodingMetrics.Phase.WRITE, start);
+          statistics.add(values, length, CellWriter.INT_NODATA);
+        };
       }
-      if (currentValue > maxValue) {
-        maxValue = currentValue;
-        value = i;
+      double[] values =
+          encoder.encode(x0, y0, width, height, columns, reuse ? encoder.output() : null);
+      return () -> {
+        long start = metrics.begin();
+        writer.write(values, length);
+        metrics.end(EncodingMetrics.Phase.WRITE, start);
+        statistics.add(values, length);
+      };
+    }
+
+    void release(RenderedImage image, GridAlignment alignment) {
+      if (stripe != null) {
+        releaseTiles(
+            image,
+            new Rectangle(
+                stripe.x + alignment.dx(), stripe.y + alignment.dy(), stripe.width, stripe.height));
       }
     }
-    return value;
   }
 
-  private double getBandOfMinValue(RandomIter iterator, long x, long y, int nBands) {
-    double value = Double.NaN;
-    double minValue = Double.MAX_VALUE;
-    for (int i = 0; i < nBands; i++) {
-      double currentValue = iterator.getSampleDouble((int) x, (int) y, i);
-      if (currentValue == Double.NaN) {
-        continue;
+  /**
+   * Cut the grid into segments in output order, along the major axis (x for columns, y for rows).
+   * Stripes follow the image tile grid; within a stripe, segments hold as many whole lines as fit
+   * in {@code maxCells}, and a single line that does not fit is split along its length, which
+   * keeps each segment contiguous in the output.
+   */
+  private static List<Segment> segments(
+      boolean columns, int major, int minor, int tileSize, int tileOffset, long maxCells) {
+
+    int lines = (int) Math.max(1, Math.min(tileSize, maxCells / minor));
+    int chunk = (int) Math.min(minor, maxCells);
+    int[] bounds = stripeBounds(major, tileSize, tileOffset);
+    List<Segment> ret = new ArrayList<>();
+
+    for (int t = 0; t + 1 < bounds.length; t++) {
+      Rectangle stripe =
+          columns
+              ? new Rectangle(bounds[t], 0, bounds[t + 1] - bounds[t], minor)
+              : new Rectangle(0, bounds[t], minor, bounds[t + 1] - bounds[t]);
+      for (int m0 = bounds[t]; m0 < bounds[t + 1]; m0 += lines) {
+        int m = Math.min(lines, bounds[t + 1] - m0);
+        boolean lastLines = m0 + m == bounds[t + 1];
+        int step = m == 1 ? chunk : minor;
+        for (int n0 = 0; n0 < minor; n0 += step) {
+          int n = Math.min(step, minor - n0);
+          Rectangle release = lastLines && n0 + n == minor ? stripe : null;
+          ret.add(
+              columns
+                  ? new Segment(m0, n0, m, n, release)
+                  : new Segment(n0, m0, n, m, release));
+        }
       }
-      if (currentValue < minValue) {
-        minValue = currentValue;
-        value = i;
+    }
+    return ret;
+  }
+
+  /**
+   * Drop the tiles of the image that intersect the passed area from its tile cache: in a
+   * streaming encode each tile is needed by one stripe only, and keeping it would just push out
+   * tiles that are still useful.
+   */
+  static void releaseTiles(RenderedImage image, Rectangle area) {
+
+    RenderedImage owner = image instanceof RenderedOp op ? op.getRendering() : image;
+    TileCache tileCache =
+        switch (owner) {
+          case OpImage opImage -> opImage.getTileCache();
+          case StoredTileImage stored -> stored.getTileCache();
+          default -> null;
+        };
+    if (tileCache == null) {
+      return;
+    }
+
+    Rectangle bounds =
+        area.intersection(
+            new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight()));
+    if (bounds.isEmpty()) {
+      return;
+    }
+
+    int minTileX = Math.floorDiv(bounds.x - image.getTileGridXOffset(), image.getTileWidth());
+    int maxTileX =
+        Math.floorDiv(
+            bounds.x + bounds.width - 1 - image.getTileGridXOffset(), image.getTileWidth());
+    int minTileY = Math.floorDiv(bounds.y - image.getTileGridYOffset(), image.getTileHeight());
+    int maxTileY =
+        Math.floorDiv(
+            bounds.y + bounds.height - 1 - image.getTileGridYOffset(), image.getTileHeight());
+    for (int ty = minTileY; ty <= maxTileY; ty++) {
+      for (int tx = minTileX; tx <= maxTileX; tx++) {
+        tileCache.remove(owner, tx, ty);
       }
     }
-    return value;
   }
 
-  private double getMaxCellValue(RandomIter iterator, long x, long y, int nBands) {
-    double maxValue = Double.MIN_VALUE;
-    for (int i = 0; i < nBands; i++) {
-      double currentValue = iterator.getSampleDouble((int) x, (int) y, i);
-      if (currentValue == Double.NaN) {
-        continue;
+  /** Order in which the storage visits the grid cells. */
+  enum Traversal {
+    /** x in the outer loop, as in D2_XY. */
+    COLUMNS,
+    /** y in the outer loop. */
+    ROWS,
+    /** Anything else, e.g. space-filling curves: each offset is mapped individually. */
+    MAPPED;
+
+    /**
+     * Recognize the traversal by probing the curve at a few offsets. With no mapper available the
+     * storage is assumed to be D2_XY.
+     */
+    static Traversal detect(LongFunction<long[]> offsets, int xx, int yy) {
+      if (offsets == null) {
+        return COLUMNS;
       }
-      if (currentValue > maxValue) {
-        maxValue = currentValue;
+      long n = (long) xx * yy;
+      long[] probes = {0, 1, yy - 1, yy, xx - 1, xx, n / 3 + 1, n / 2, n - 2, n - 1};
+      boolean columns = true;
+      boolean rows = true;
+      for (long probe : probes) {
+        if (probe < 0 || probe >= n) {
+          continue;
+        }
+        long[] xy = offsets.apply(probe);
+        columns &= xy[0] == probe / yy && xy[1] == probe % yy;
+        rows &= xy[0] == probe % xx && xy[1] == probe / xx;
       }
+      return columns ? COLUMNS : (rows ? ROWS : MAPPED);
     }
-    return maxValue == Double.MIN_VALUE ? Double.NaN : maxValue;
   }
 
-  private double getMinCellValue(RandomIter iterator, long x, long y, int nBands) {
-    double minValue = Double.MAX_VALUE;
-    for (int i = 0; i < nBands; i++) {
-      double currentValue = iterator.getSampleDouble((int) x, (int) y, i);
-      if (currentValue == Double.NaN) {
-        continue;
-      }
-      if (currentValue < minValue) {
-        minValue = currentValue;
+  /**
+   * The offset mapper from the storage fill curve to grid coordinates, or null if the scanner
+   * does not expose one.
+   */
+  private LongFunction<long[]> getOffsets(Storage.Scanner filler) {
+    var shard = filler.shard();
+    if (shard == null || shard.getShardingStrategy() == null || shard.getGeometry() == null) {
+      return null;
+    }
+    var mapper =
+        shard
+            .getShardingStrategy()
+            .getCurve()
+            .mapperTo(
+                Data.FillCurve.D2_XY,
+                GeometryRepository.INSTANCE.scale(shard.getGeometry()).getSpace());
+    return mapper == null ? null : mapper::offsets;
+  }
+
+  /**
+   * Split [0, extent) into stripes whose inner boundaries fall on the tile grid, i.e. at
+   * positions congruent to {@code tileOffset} modulo {@code tileSize}.
+   */
+  private static int[] stripeBounds(int extent, int tileSize, int tileOffset) {
+    tileSize = Math.max(1, Math.min(tileSize, extent));
+    int first = Math.floorMod(tileOffset, tileSize);
+    if (first == 0) {
+      first = tileSize;
+    }
+    int[] ret = new int[(extent - first + tileSize - 1) / tileSize + 2];
+    int n = 0;
+    ret[n++] = 0;
+    for (int b = Math.min(first, extent); ; b = Math.min(b + tileSize, extent)) {
+      ret[n++] = b;
+      if (b == extent) {
+        break;
       }
     }
-    return minValue == Double.MAX_VALUE ? Double.NaN : minValue;
+    return Arrays.copyOf(ret, n);
   }
 
-  private double getAvgCellValue(RandomIter iterator, long x, long y, int nBands) {
-    int validBands = 0;
-    double sum = 0.0;
-    for (int i = 0; i < nBands; i++) {
-      double currentValue = iterator.getSampleDouble((int) x, (int) y, i);
-      if (Double.isNaN(currentValue)) {
-        continue;
+  /**
+   * Encode in arbitrary curve order, decoding the grid in tile-sized blocks kept in a small LRU
+   * cache: space-filling curves visit cells block by block, so each block is decoded about once.
+   */
+  private void encodeMapped(
+      StripeEncoder encoder,
+      LongFunction<long[]> offsets,
+      int xx,
+      int yy,
+      int blockWidth,
+      int blockHeight,
+      CellWriter writer,
+      RasterStatistics statistics) {
+
+    int blocksX = (xx + blockWidth - 1) / blockWidth;
+    Map<Integer, double[]> blocks =
+        new LinkedHashMap<>(MAX_CACHED_BLOCKS * 2, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+            return size() > MAX_CACHED_BLOCKS;
+          }
+        };
+
+    long n = (long) xx * yy;
+    for (long i = 0; i < n; i++) {
+      long[] xy = offsets.apply(i);
+      int x = (int) xy[0];
+      int y = (int) xy[1];
+      int bx = x / blockWidth;
+      int by = y / blockHeight;
+      int width = Math.min(blockWidth, xx - bx * blockWidth);
+      double[] block =
+          blocks.computeIfAbsent(
+              by * blocksX + bx,
+              key ->
+                  encoder.encode(
+                      bx * blockWidth,
+                      by * blockHeight,
+                      width,
+                      Math.min(blockHeight, yy - by * blockHeight),
+                      false,
+                      null));
+      double value = block[(y - by * blockHeight) * width + (x - bx * blockWidth)];
+      statistics.add(value);
+      writer.add(value);
+    }
+  }
+
+  /**
+   * Produces the final values for a rectangle of the grid, in output order. Instances can be used
+   * concurrently: each call borrows its working arrays from a pool of the encoder, which holds at
+   * most one set per concurrent call and is dropped with the encoder at the end of the encode, so
+   * no arrays stay attached to the pool threads.
+   */
+  private class StripeEncoder {
+
+    private final RenderedImage image;
+    private final GridAlignment alignment;
+    private final int band;
+    private final BandMixing.Mixer bandMixer;
+    private final int[] mixedBands;
+    private final NodataMatcher[] nodata;
+    private final String transformExpression;
+    private final EncodingMetrics metrics;
+    private final int maxCells;
+    private final int planes;
+    private final Queue<Buffers> buffers = new ConcurrentLinkedQueue<>();
+    private double[] output;
+    private int[] intOutput;
+
+    /** The working arrays of one call, allocated on first use. */
+    private final class Buffers {
+
+      private double[][] planes;
+      private double[] mix;
+      private double[] tile;
+      private int[] ints;
+      private int[] intTile;
+
+      double[][] planes() {
+        if (planes == null) {
+          planes = new double[StripeEncoder.this.planes][maxCells];
+        }
+        return planes;
+      }
+
+      double[] mix() {
+        if (mix == null) {
+          mix = new double[maxCells];
+        }
+        return mix;
+      }
+
+      double[] tile() {
+        if (tile == null) {
+          tile = new double[image.getTileWidth() * image.getTileHeight()];
+        }
+        return tile;
+      }
+
+      int[] ints() {
+        if (ints == null) {
+          ints = new int[maxCells];
+        }
+        return ints;
       }
-      sum += currentValue;
-      validBands++;
+
+      int[] intTile() {
+        if (intTile == null) {
+          intTile = new int[image.getTileWidth() * image.getTileHeight()];
+        }
+        return intTile;
+      }
+    }
+
+    /**
+     * @param maxCells the largest number of cells encoded in one call
+     */
+    StripeEncoder(
+        RenderedImage image,
+        GridAlignment alignment,
+        int maxCells,
+        int band,
+        BandMixing.Mixer bandMixer,
+        NodataMatcher[] nodata,
+        String transformExpression,
+        EncodingMetrics metrics) {
+      this.image = image;
+      this.alignment = alignment;
+      this.band = band;
+      this.bandMixer = bandMixer;
+      this.mixedBands = bandMixer == null ? null : bandMixer.getBands();
+      this.nodata = nodata;
+      this.transformExpression = transformExpression;
+      this.metrics = metrics;
+      this.maxCells = maxCells;
+      // a mixer only reads the bands it uses (e.g. two for an NDVI expression)
+      this.planes = bandMixer == null ? 1 : Math.max(1, mixedBands.length);
     }
-    if (validBands == 0) {
-      return Double.NaN;
+
+    /**
+     * An output buffer large enough for any call, shared by all callers: only for a single thread
+     * that consumes each result before the next call.
+     */
+    double[] output() {
+      if (output == null) {
+        output = new double[maxCells];
+      }
+      return output;
+    }
+
+    /** As {@link #output()} for integer values. */
+    int[] intOutput() {
+      if (intOutput == null) {
+        intOutput = new int[maxCells];
+      }
+      return intOutput;
     }
-    return sum / validBands;
+
+    private Buffers acquire() {
+      Buffers ret = buffers.poll();
+      return ret == null ? new Buffers() : ret;
+    }
+
+    /**
+     * As {@link #encode(int, int, int, int, boolean, double[])} for a single band of integer
+     * samples with no mixing or transformation: samples are read as integers and nodata is set
+     * to {@link CellWriter#INT_NODATA}.
+     */
+    int[] encodeIntegral(
+        int x0, int y0, int width, int height, boolean columnMajor, int[] output) {
+
+      int length = width * height;
+      if (output == null) {
+        output = new int[length];
+      }
+
+      long start = metrics.begin();
+      Buffers buffers = acquire();
+      int[] values = columnMajor ? buffers.ints() : output;
+      readStripe(
+          image,
+          x0 + alignment.dx(),
+          y0 + alignment.dy(),
+          width,
+          height,
+          band,
+          values,
+          buffers.intTile());
+      nodata[band].apply(values, length, CellWriter.INT_NODATA);
+
+      if (columnMajor) {
+        int i = 0;
+        for (int dx = 0; dx < width; dx++) {
+          for (int y = 0; y < height; y++) {
+            output[i++] = values[y * width + dx];
+          }
+        }
+      }
+      this.buffers.add(buffers);
+      metrics.end(EncodingMetrics.Phase.ITERATE, start);
+      return output;
+    }
+
+    /**
+     * Encode the grid cells in columns [x0, x0 + width) and rows [y0, y0 + height) into {@code
+     * output} (allocated if null), x-major if {@code columnMajor}, y-major otherwise.
+     */
+    double[] encode(int x0, int y0, int width, int height, boolean columnMajor, double[] output) {
+
+      int length = width * height;
+      if (output == null) {
+        output = new double[length];
+      }
+
+      long start = metrics.begin();
+      DoubleUnaryOperator transformation =
+          transformExpression == null ? null : getTransformation(transformExpression);
+      Buffers buffers = acquire();
+      double[][] planes = buffers.planes();
+      double[] values;
+
+      if (bandMixer != null) {
+        readStripe(
+            image,
+            x0 + alignment.dx(),
+            y0 + alignment.dy(),
+            width,
+            height,
+            mixedBands,
+            planes,
+            buffers.tile());
+        for (int b = 0; b < mixedBands.length; b++) {
+          nodata[mixedBands[b]].apply(planes[b], length);
+        }
+        values = buffers.mix();
+        bandMixer.mix(planes, length, values);
+      } else {
+        readStripe(
+            image,
+            x0 + alignment.dx(),
+            y0 + alignment.dy(),
+            width,
+            height,
+            new int[] {band},
+            planes,
+            buffers.tile());
+        values = planes[0];
+        nodata[band].apply(values, length);
+      }
+      metrics.end(EncodingMetrics.Phase.ITERATE, start);
+
+      start = metrics.begin();
+
+      if (columnMajor) {
+        int i = 0;
+        for (int dx = 0; dx < width; dx++) {
+          for (int y = 0; y < height; y++) {
+            output[i++] = postProcess(values[y * width + dx], transformation);
+          }
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          output[i] = postProcess(values[i], transformation);
+        }
+      }
+      this.buffers.add(buffers);
+      metrics.end(
+          transformation == null ? EncodingMetrics.Phase.ITERATE : EncodingMetrics.Phase.TRANSFORM,
+          start);
+      return output;
+    }
+  }
+
+  /** Apply the optional transformation to a value that has been checked for nodata. */
+  private double postProcess(double value, DoubleUnaryOperator transformation) {
+    if (transformation != null && !Double.isNaN(value)) {
+      value = transformation.applyAsDouble(value);
+    }
+    return value;
   }
 
-  private double getSumCellValue(RandomIter iterator, long x, long y, int nBands) {
-    double sum = 0.0;
-    for (int i = 0; i < nBands; i++) {
-      double currentValue = iterator.getSampleDouble((int) x, (int) y, i);
-      if (Double.isNaN(currentValue)) {
-        continue;
+  /**
+   * Turn a transform expression into a primitive operator on {@code self}. Arithmetic-only
+   * expressions are compiled (and cached) into an {@link ArithmeticExpression}; anything else goes
+   * through Groovy, with the script class compiled once per expression text and a fresh script
+   * instance per call, as the binding is not thread-safe.
+   */
+  public DoubleUnaryOperator getTransformation(String expression) {
+
+    var compiled = ArithmeticExpression.compile(expression.trim(), List.of("self"));
+    if (compiled.isPresent()) {
+      return compiled.get();
+    }
+
+    Class<? extends Script> scriptClass;
+    try {
+      scriptClass =
+          transformationScripts.get(
+              expression, () -> new GroovyShell().parse(expression).getClass());
+    } catch (UncheckedExecutionException | ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
       }
-      sum += currentValue;
+      throw new KlabInternalErrorException(e.getCause());
     }
-    return sum;
+    Binding binding = new Binding();
+    Script script = InvokerHelper.createScript(scriptClass, binding);
+    return value -> {
+      binding.setVariable("self", value);
+      Object o = script.run();
+      return o instanceof Number number ? number.doubleValue() : Double.NaN;
+    };
   }
 
-  private Set<Double> getNodata(Resource resource, GridCoverage coverage, int band) {
-    Set<Double> ret = new HashSet<>();
-    if (resource.getParameters().contains("nodata")) {
-      ret.add(resource.getParameters().get("nodata", Double.class));
+  /**
+   * Read the samples of the passed bands in the image columns [x0, x0 + width) and rows [y0, y0 +
+   * height) into one plane per band, row-major with the passed width. Each intersecting tile is
+   * fetched once and read with one bulk {@link Raster#getSamples(int, int, int, int, int,
+   * double[])} call per band; cells that fall outside the image are set to NaN.
+   */
+  private void readStripe(
+      RenderedImage image,
+      int x0,
+      int y0,
+      int width,
+      int height,
+      int[] bands,
+      double[][] planes,
+      double[] tileBuffer) {
+
+    for (int b = 0; b < bands.length; b++) {
+      Arrays.fill(planes[b], 0, width * height, Double.NaN);
+    }
+
+    Rectangle area =
+        new Rectangle(x0, y0, width, height)
+            .intersection(
+                new Rectangle(
+                    image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight()));
+    if (area.isEmpty()) {
+      return;
+    }
+
+    int tileWidth = image.getTileWidth();
+    int tileHeight = image.getTileHeight();
+    int minTileX = Math.floorDiv(area.x - image.getTileGridXOffset(), tileWidth);
+    int maxTileX = Math.floorDiv(area.x + area.width - 1 - image.getTileGridXOffset(), tileWidth);
+    int minTileY = Math.floorDiv(area.y - image.getTileGridYOffset(), tileHeight);
+    int maxTileY = Math.floorDiv(area.y + area.height - 1 - image.getTileGridYOffset(), tileHeight);
+
+    for (int ty = minTileY; ty <= maxTileY; ty++) {
+      for (int tx = minTileX; tx <= maxTileX; tx++) {
+        Raster tile = image.getTile(tx, ty);
+        Rectangle section = tile.getBounds().intersection(area);
+        if (section.isEmpty()) {
+          continue;
+        }
+        for (int b = 0; b < bands.length; b++) {
+          tile.getSamples(
+              section.x, section.y, section.width, section.height, bands[b], tileBuffer);
+          for (int row = 0; row < section.height; row++) {
+            System.arraycopy(
+                tileBuffer,
+                row * section.width,
+                planes[b],
+                (section.y - y0 + row) * width + (section.x - x0),
+                section.width);
+          }
+        }
+      }
     }
-    return ret;
   }
 
-  private CoordinateReferenceSystem getCrs(Geometry geometry) {
-    var scale = Scale.create(geometry);
-    var space = scale.getSpace();
-    return ((ProjectionImpl) space.getProjection()).getCoordinateReferenceSystem();
+  /**
+   * As {@link #readStripe(RenderedImage, int, int, int, int, int[], double[][], double[])} for one
+   * band of integer samples, read with {@link Raster#getSamples(int, int, int, int, int, int[])};
+   * cells outside the image are set to {@link CellWriter#INT_NODATA}.
+   */
+  private void readStripe(
+      RenderedImage image,
+      int x0,
+      int y0,
+      int width,
+      int height,
+      int band,
+      int[] plane,
+      int[] tileBuffer) {
+
+    Arrays.fill(plane, 0, width * height, CellWriter.INT_NODATA);
+
+    Rectangle area =
+        new Rectangle(x0, y0, width, height)
+            .intersection(
+                new Rectangle(
+                    image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight()));
+    if (area.isEmpty()) {
+      return;
+    }
+
+    int tileWidth = image.getTileWidth();
+    int tileHeight = image.getTileHeight();
+    int minTileX = Math.floorDiv(area.x - image.getTileGridXOffset(), tileWidth);
+    int maxTileX = Math.floorDiv(area.x + area.width - 1 - image.getTileGridXOffset(), tileWidth);
+    int minTileY = Math.floorDiv(area.y - image.getTileGridYOffset(), tileHeight);
+    int maxTileY = Math.floorDiv(area.y + area.height - 1 - image.getTileGridYOffset(), tileHeight);
+
+    for (int ty = minTileY; ty <= maxTileY; ty++) {
+      for (int tx = minTileX; tx <= maxTileX; tx++) {
+        Raster tile = image.getTile(tx, ty);
+        Rectangle section = tile.getBounds().intersection(area);
+        if (section.isEmpty()) {
+          continue;
+        }
+        tile.getSamples(section.x, section.y, section.width, section.height, band, tileBuffer);
+        for (int row = 0; row < section.height; row++) {
+          System.arraycopy(
+              tileBuffer,
+              row * section.width,
+              plane,
+              (section.y - y0 + row) * width + (section.x - x0),
+              section.width);
+        }
+      }
+    }
   }
 
-  private Interpolation getInterpolation(Parameters<String> metadata) {
+  /**
+   * The interpolation named by the {@link RasterAdapter#INTERPOLATION_PARAM} in the passed
+   * parameters, nearest neighbor if not specified.
+   */
+  public Interpolation getInterpolation(Parameters<String> metadata) {
 
     String method = metadata.get(RasterAdapter.INTERPOLATION_PARAM, String.class);
     if (method != null) {
@@ -329,67 +1181,267 @@ public enum RasterEncoder {
     return new InterpolationNearest();
   }
 
-  private ReferencedEnvelope getEnvelope(Geometry geometry, CoordinateReferenceSystem crs) {
-    var scale = Scale.create(geometry);
-    var space = scale.getSpace();
-    return ((EnvelopeImpl) space.getEnvelope()).getJTSEnvelope();
-  }
-
-  private GridGeometry2D getGridGeometry(Geometry geometry, ReferencedEnvelope envelope) {
-
-    var space = geometry.dimension(Geometry.Dimension.Type.SPACE);
-    if (space.getDimensionality() != 2 || !space.isRegular()) {
-      throw new KlabInternalErrorException(
-          "raster encoder: cannot create grid for raster projection: shape is not a grid");
-    }
-    GeneralGridEnvelope gridRange =
-        new GeneralGridEnvelope(
-            new int[] {0, 0},
-            new int[] {space.getShape().get(0).intValue(), (space.getShape().get(1).intValue())},
-            false);
-
-    return new GridGeometry2D(gridRange, envelope);
-  }
-
   /**
-   * Coverages with caching. We keep a configurable total of coverages in memory using the session
-   * cache, including their transformations indexed by geometry.
+   * Coverages with caching. We keep a configurable total of resampled coverages in memory, indexed
+   * by principal file, target grid and interpolation. Coverages larger than the encoding budget
+   * are returned lazy and not cached, and decoded stripe by stripe as they are encoded.
    *
    * @param resource
    * @return a coverage for the untransformed data. Never null
    */
   public GridCoverage getCoverage(Resource resource, Geometry geometry) {
+    return getCoverage(resource, geometry, EncodingMetrics.NONE);
+  }
 
-    GridCoverage coverage = getOriginalCoverage(resource);
+  /**
+   * As {@link #getCoverage(Resource, Geometry)}, recording the time spent reading, resampling and
+   * computing the coverage into memory when it is not cached.
+   */
+  public GridCoverage getCoverage(Resource resource, Geometry geometry, EncodingMetrics metrics) {
 
-    // TODO if we have it in the cache for the principal file + space signature,
-    // return that
+    File mainFile = getMainFile(resource);
 
     /*
      * build the needed Geotools context and the interpolation method
      */
-    CoordinateReferenceSystem crs = getCrs(geometry);
-    ReferencedEnvelope envelope = getEnvelope(geometry, crs);
-    GridGeometry2D gridGeometry = getGridGeometry(geometry, envelope);
+    GridContext grid = GridContext.of(geometry);
     Interpolation interpolation = getInterpolation(resource.getMetadata());
 
-    /*
-     * subset first
-     */
-    GridCoverage transformedCoverage =
-        (GridCoverage) Operations.DEFAULT.resample(coverage, envelope, interpolation);
+    var event = new GeospatialEvents.Coverage();
+    event.begin();
+    boolean[] loaded = {false};
+    GridCoverage ret =
+        coverageCache.get(
+            CoverageCache.Key.of(mainFile, grid.getCrs(), grid.getGridGeometry(), interpolation),
+            () -> {
+              loaded[0] = true;
+              long start = metrics.begin();
+              GridCoverage coverage = readCoverage(mainFile, grid.getGridGeometry());
+              metrics.end(EncodingMetrics.Phase.READ, start);
+              return adaptCoverage(coverage, grid, interpolation, metrics);
+            },
+            metrics);
+    event.end();
+    if (loaded[0] && statisticsOnAccess) {
+      computeFileStatisticsLater(resource, mainFile);
+    }
+    if (event.shouldCommit()) {
+      event.urn = resource.getUrn();
+      event.file = mainFile.getPath();
+      event.gridWidth = grid.getWidth();
+      event.gridHeight = grid.getHeight();
+      event.bands = ret.getNumSampleDimensions();
+      event.cache = loaded[0] ? GeospatialEvents.MISS : GeospatialEvents.HIT;
+      event.commit();
+    }
+    return ret;
+  }
+
+  /**
+   * Bring a coverage onto the grid of the passed geometry, ready for {@link #encodeFromCoverage}.
+   * Coverages whose grid is aligned with the target (same CRS and cell size, integer pixel offset)
+   * are returned as they are: the encoder then copies their pixels with no interpolation.
+   *
+   * @param coverage any coverage overlapping the geometry
+   * @param geometry the target geometry, which must have a regular 2D grid
+   * @param interpolation the interpolation to use if resampling is necessary
+   */
+  public GridCoverage adaptCoverage(
+      GridCoverage coverage, Geometry geometry, Interpolation interpolation) {
+    return adaptCoverage(coverage, GridContext.of(geometry), interpolation, EncodingMetrics.NONE);
+  }
+
+  /**
+   * As {@link #adaptCoverage(GridCoverage, Geometry, Interpolation)}, recording the time spent
+   * setting up the resampling.
+   */
+  public GridCoverage adaptCoverage(
+      GridCoverage coverage,
+      Geometry geometry,
+      Interpolation interpolation,
+      EncodingMetrics metrics) {
+    return adaptCoverage(coverage, GridContext.of(geometry), interpolation, metrics);
+  }
+
+  private GridCoverage adaptCoverage(
+      GridCoverage coverage,
+      GridContext grid,
+      Interpolation interpolation,
+      EncodingMetrics metrics) {
+    long start = metrics.begin();
+    try {
+      return resample(coverage, grid, interpolation);
+    } finally {
+      metrics.end(EncodingMetrics.Phase.RESAMPLE, start);
+    }
+  }
+
+  private GridCoverage resample(
+      GridCoverage coverage, GridContext grid, Interpolation interpolation) {
+
+    if (GridAlignment.of(coverage.getGridGeometry(), grid.getGridGeometry()) != null) {
+      return coverage;
+    }
+
+    if (warpTolerance > 0
+        && coverage instanceof GridCoverage2D coverage2D
+        && !CRS.equalsIgnoreMetadata(coverage2D.getCoordinateReferenceSystem2D(), grid.getCrs())) {
+      return ApproximateWarp.warp(coverage2D, grid, interpolation, warpTolerance);
+    }
 
     /*
-     * then resample
+     * Crop and reproject in one warp straight onto the target grid: the read is already
+     * windowed, and the resulting image is computed tile by tile on demand, so no intermediate
+     * cropped raster is ever materialized.
      */
-    transformedCoverage =
-        (GridCoverage)
-            Operations.DEFAULT.resample(transformedCoverage, crs, gridGeometry, interpolation);
+    return (GridCoverage)
+        Operations.DEFAULT.resample(
+            coverage, grid.getCrs(), grid.getGridGeometry(), interpolation);
+  }
+
+  /** Hit, miss and eviction counts of the resampled coverage cache. */
+  public CacheStats getCoverageCacheStats() {
+    return coverageCache.getStats();
+  }
+
+  /**
+   * Per-band statistics of the whole main file of a resource, computed once and persisted in its
+   * PAM sidecar ({@code <file>.aux.xml}), where GDAL and QGIS find them too. A sidecar older than
+   * the file, or lacking the statistics of any band, is recomputed with a full read of the file
+   * and rewritten, keeping what else it holds; a sidecar that cannot be parsed is left untouched
+   * and the statistics are only kept in memory. Nodata follows the resource parameters and the
+   * declarations in the file.
+   *
+   * @return the statistics of each band
+   */
+  public RasterStatistics[] getFileStatistics(Resource resource) {
+    File mainFile = getMainFile(resource);
+    try {
+      return fileStatistics.get(
+          getFileIdentity(mainFile), () -> loadFileStatistics(resource, mainFile));
+    } catch (UncheckedExecutionException | ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new KlabIOException(e.getCause());
+    }
+  }
+
+  /** Compute and persist the file statistics on a background thread unless already available. */
+  private void computeFileStatisticsLater(Resource resource, File mainFile) {
+    String identity = getFileIdentity(mainFile);
+    if (fileStatistics.getIfPresent(identity) != null || !pendingStatistics.add(identity)) {
+      return;
+    }
+    statisticsExecutor.execute(
+        () -> {
+          try {
+            getFileStatistics(resource);
+          } catch (RuntimeException e) {
+            Logging.INSTANCE.warn(
+                "cannot compute statistics for " + mainFile.getName() + ": " + e.getMessage());
+          } finally {
+            pendingStatistics.remove(identity);
+          }
+        });
+  }
+
+  private RasterStatistics[] loadFileStatistics(Resource resource, File mainFile) {
+
+    GridCoverage coverage;
+    GridCoverage2DReader reader = readerPool.get(mainFile);
+    synchronized (reader) {
+      try {
+        // deferred: nothing is decoded until the tiles are requested below
+        coverage = reader.read(getReadParameters(null));
+      } catch (IOException e) {
+        throw new KlabIOException(e);
+      }
+    }
+
+    RenderedImage image = coverage.getRenderedImage();
+    long cells = (long) image.getWidth() * image.getHeight();
+    int bands = coverage.getNumSampleDimensions();
+    File auxFile = RasterAuxXml.getFile(mainFile);
+    RasterAuxXml aux = null;
+    boolean unreadable = false;
+    try {
+      aux = RasterAuxXml.read(auxFile);
+    } catch (KlabIOException e) {
+      // possibly written by a newer GDAL: compute the statistics but never overwrite it
+      Logging.INSTANCE.warn("cannot parse " + auxFile + ", leaving it alone: " + e.getMessage());
+      unreadable = true;
+    }
+
+    if (aux != null && auxFile.lastModified() >= mainFile.lastModified()) {
+      RasterStatistics[] ret = new RasterStatistics[bands];
+      for (int band = 0; band < bands; band++) {
+        ret[band] = aux.getStatistics(band + 1, cells);
+        if (ret[band] == null) {
+          ret = null;
+          break;
+        }
+      }
+      if (ret != null) {
+        return ret;
+      }
+    }
+
+    Logging.INSTANCE.info("computing band statistics for " + mainFile.getName());
+    RasterStatistics[] ret =
+        computeStatistics(
+            image, NodataMatcher.create(resource, Parameters.create(), coverage), bands);
+
+    if (unreadable) {
+      return ret;
+    }
+    if (aux == null) {
+      aux = new RasterAuxXml();
+    }
+    for (int band = 0; band < bands; band++) {
+      aux.setStatistics(band + 1, ret[band]);
+    }
+    try {
+      aux.write(auxFile);
+    } catch (KlabIOException e) {
+      // read-only location: the statistics stay in memory
+      Logging.INSTANCE.warn("cannot write " + auxFile + ": " + e.getMessage());
+    }
+    return ret;
+  }
+
+  /** One pass over the tiles of the image, releasing each from the tile cache once read. */
+  private static RasterStatistics[] computeStatistics(
+      RenderedImage image, NodataMatcher[] nodata, int bands) {
+
+    RasterStatistics[] ret = new RasterStatistics[bands];
+    for (int band = 0; band < bands; band++) {
+      ret[band] = new RasterStatistics();
+    }
+    Rectangle bounds =
+        new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+    double[] samples = new double[image.getTileWidth() * image.getTileHeight()];
+    for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+      for (int tx = image.getMinTileX(); tx < image.getMinTileX() + image.getNumXTiles(); tx++) {
+        Raster tile = image.getTile(tx, ty);
+        Rectangle area = tile.getBounds().intersection(bounds);
+        int length = area.width * area.height;
+        for (int band = 0; band < bands; band++) {
+          tile.getSamples(area.x, area.y, area.width, area.height, band, samples);
+          nodata[band].apply(samples, length);
+          ret[band].add(samples, length);
+        }
+        releaseTiles(image, area);
+      }
+    }
+    return ret;
+  }
 
-    return transformedCoverage;
+  private static String getFileIdentity(File file) {
+    return file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length();
   }
 
-  private GridCoverage getOriginalCoverage(Resource resource) {
+  private File getMainFile(Resource resource) {
 
     File mainFile = null;
     for (var file : resource.getLocalFiles()) {
@@ -406,28 +1458,156 @@ public enum RasterEncoder {
           "raster resource " + resource.getUrn() + " cannot be accessed");
     }
 
-    return readCoverage(mainFile);
+    return mainFile;
   }
 
   public GridCoverage readCoverage(File mainFile) {
+    return readCoverage(mainFile, (GridGeometry2D) null);
+  }
+
+  /**
+   * Read the file and store its decoded tiles under the passed identity instead of the file's own,
+   * for sources (such as downloads) whose file is only a temporary copy of the data.
+   */
+  public GridCoverage readCoverage(File mainFile, String identity) {
+    return readCoverage(mainFile, null, identity);
+  }
+
+  public GridCoverage readCoverage(File mainFile, GridGeometry2D gridGeometry) {
+    return readCoverage(mainFile, gridGeometry, getFileIdentity(mainFile));
+  }
+
+  /**
+   * Read the part of the file that covers the passed grid, at the coarsest overview level (internal
+   * or from a {@code .ovr} sidecar) that still matches its resolution, chosen by {@link
+   * OverviewSelector}. Decoding is deferred, so only the source tiles that are actually used later
+   * are read.
+   *
+   * <p>The tiles of the returned coverage come from the {@link #getTileStore() tile store} when
+   * the same tiles of the file have been decoded before, for this or any other window.
+   *
+   * @param mainFile the raster file
+   * @param gridGeometry the target grid, in any CRS; if null, the whole file is read
+   * @param identity identifies the data in the tile store
+   */
+  public GridCoverage readCoverage(File mainFile, GridGeometry2D gridGeometry, String identity) {
+
+    GridCoverage2DReader reader = readerPool.get(mainFile);
+    synchronized (reader) {
+      try {
+        GridGeometry2D readGeometry = gridGeometry;
+        int level = 0;
+        if (gridGeometry != null) {
+          var selection = OverviewSelector.select(reader, gridGeometry);
+          if (selection != null) {
+            level = selection.level();
+            Logging.INSTANCE.debug(
+                "reading "
+                    + mainFile.getName()
+                    + " at level "
+                    + selection.level()
+                    + " of "
+                    + selection.levels());
+            readGeometry = selection.readGeometry();
+          }
+        }
+        GridCoverage ret = reader.read(getReadParameters(readGeometry));
+        if (ret == null && gridGeometry != null) {
+          // readers return null when the request does not intersect the data: resampling the
+          // whole (lazily loaded) coverage will produce the expected nodata
+          ret = reader.read(getReadParameters(null));
+        }
+        return storeTiles(ret, identity, level, reader);
+      } catch (IOException e) {
+        throw new KlabIOException(e);
+      }
+    }
+  }
 
-    GridCoverage2D ret = null;
-    AbstractGridFormat format = GridFormatFinder.findFormat(mainFile);
-    // this is a bit hackey but does make more geotiffs work
-    Hints hints = new Hints();
-    if (format instanceof GeoTiffFormat) {
-      hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+  /**
+   * Wrap the image of the coverage so that its tiles are taken from the tile store, keyed by
+   * source identity, level and the index of each tile among the tiles of the whole level. This
+   * needs the read window to start on a tile of the file and to end on one or at the edge of the
+   * level, which {@link OverviewSelector} arranges; other reads are not stored, as their tiles
+   * cannot be matched with those of other windows.
+   */
+  private GridCoverage storeTiles(
+      GridCoverage coverage, String identity, int level, GridCoverage2DReader reader)
+      throws IOException {
+
+    TileStore store = getTileStore();
+    if (store == null || !(coverage instanceof GridCoverage2D coverage2D)) {
+      return coverage;
     }
-    GridCoverage2DReader reader = format.getReader(mainFile, hints);
-    try {
-      ret = reader.read(null);
-    } catch (IOException e) {
-      throw new KlabIOException(e);
+
+    RenderedImage image = coverage2D.getRenderedImage();
+    double[][] levels = reader.getResolutionLevels();
+    var file = new ReferencedEnvelope(reader.getOriginalEnvelope());
+    var window = coverage2D.getEnvelope2D();
+    double resX = levels == null ? file.getWidth() / image.getWidth() : levels[level][0];
+    double resY = levels == null ? file.getHeight() / image.getHeight() : levels[level][1];
+    double column = (window.getMinX() - file.getMinX()) / resX;
+    double row = (file.getMaxY() - window.getMaxY()) / resY;
+    int x = (int) Math.round(column);
+    int y = (int) Math.round(row);
+    int levelWidth = (int) Math.round(file.getWidth() / resX);
+    int levelHeight = (int) Math.round(file.getHeight() / resY);
+    int tileWidth = image.getTileWidth();
+    int tileHeight = image.getTileHeight();
+
+    boolean aligned =
+        Math.abs(column - x) < 1.0e-3
+            && Math.abs(row - y) < 1.0e-3
+            && Math.abs(window.getWidth() / image.getWidth() - resX) <= resX * 1.0e-6
+            && Math.abs(window.getHeight() / image.getHeight() - resY) <= resY * 1.0e-6
+            && image.getTileGridXOffset() == image.getMinX()
+            && image.getTileGridYOffset() == image.getMinY()
+            && x % tileWidth == 0
+            && y % tileHeight == 0
+            && (x + image.getWidth() == levelWidth || (x + image.getWidth()) % tileWidth == 0)
+            && (y + image.getHeight() == levelHeight || (y + image.getHeight()) % tileHeight == 0);
+    if (!aligned) {
+      Logging.INSTANCE.debug(
+          "not storing the tiles of " + identity + ": read window not aligned to the file tiles");
+      return coverage;
     }
 
-    // TODO caching?
+    return new GridCoverageFactory()
+        .create(
+            coverage2D.getName(),
+            new StoredTileImage(image, store, identity, level, x / tileWidth, y / tileHeight),
+            coverage2D.getGridGeometry(),
+            coverage2D.getSampleDimensions(),
+            new GridCoverage[] {coverage2D},
+            coverage2D.getProperties());
+  }
 
-    return ret;
+  private GeneralParameterValue[] getReadParameters(GridGeometry2D gridGeometry) {
+
+    List<GeneralParameterValue> ret = new ArrayList<>();
+
+    ParameterValue<Boolean> deferred = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+    deferred.setValue(true);
+    ret.add(deferred);
+
+    if (gridGeometry != null) {
+      ParameterValue<GridGeometry2D> grid = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+      grid.setValue(gridGeometry);
+      ret.add(grid);
+      ParameterValue<OverviewPolicy> policy = AbstractGridFormat.OVERVIEW_POLICY.createValue();
+      policy.setValue(OverviewPolicy.QUALITY);
+      ret.add(policy);
+    }
+
+    return ret.toArray(new GeneralParameterValue[0]);
+  }
+
+  /**
+   * Dispose of any reader kept open on the file. Call before deleting a file that may have been
+   * read through {@link #readCoverage(File)}.
+   */
+  public void releaseFile(File file) {
+    readerPool.invalidate(file);
   }
 
   //  public boolean exportCoverage(
@@ -0,0 +1,301 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import java.util.Arrays;
+
+/**
+ * Streaming statistics of the values of a raster, accumulated in the same pass that produces them:
+ * minimum, maximum, mean, standard deviation, count of valid and nodata cells and a histogram with
+ * a fixed number of bins. NaN and infinite values are counted as nodata, as they have no place in
+ * the histogram or the mean.
+ *
+ * <p>The histogram range is not known in advance: it starts from the range of the first values and
+ * doubles its bin width (merging bin pairs) whenever values fall outside, so bin counts are exact
+ * and the histogram always spans at most twice the range of the data. Values are best added in
+ * blocks, which extend the range once per block.
+ *
+ * <p>Not thread-safe; partial statistics of concurrent work can be combined with {@link
+ * #merge(RasterStatistics)}.
+ */
+public final class RasterStatistics {
+
+  /** Property holding the statistics in the coverages built from states. */
+  public static final String COVERAGE_PROPERTY = "statistics";
+
+  public static final int DEFAULT_BINS = 256;
+
+  /**
+   * More doublings than this take any bin width past the double range, so the rebinning loop can
+   * stop there.
+   */
+  private static final int MAX_DOUBLINGS = 2100;
+
+  private final long[] bins;
+  private double origin;
+  private double binWidth;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+  private double sum;
+  private double sumOfSquares;
+  private long count;
+  private long nodata;
+
+  public RasterStatistics() {
+    this(DEFAULT_BINS);
+  }
+
+  /**
+   * @param bins number of histogram bins, even
+   */
+  public RasterStatistics(int bins) {
+    if (bins < 2 || bins % 2 != 0) {
+      throw new IllegalArgumentException("histogram bins must be even and at least 2");
+    }
+    this.bins = new long[bins];
+  }
+
+  /**
+   * Rebuild statistics saved elsewhere, such as a PAM sidecar. The sums are recovered from mean
+   * and standard deviation, so that further values can be added or merged. An odd number of bins
+   * is padded with an empty one.
+   *
+   * @param histogram the bin counts from {@code origin} in steps of {@code binWidth}
+   * @param nodata the number of nodata values
+   */
+  public static RasterStatistics of(
+      double min,
+      double max,
+      double mean,
+      double standardDeviation,
+      double origin,
+      double binWidth,
+      long[] histogram,
+      long nodata) {
+    var ret = new RasterStatistics(histogram.length + histogram.length % 2);
+    System.arraycopy(histogram, 0, ret.bins, 0, histogram.length);
+    for (long n : histogram) {
+      ret.count += n;
+    }
+    ret.nodata = nodata;
+    if (ret.count > 0) {
+      ret.origin = origin;
+      ret.binWidth = binWidth;
+      ret.min = min;
+      ret.max = max;
+      ret.sum = mean * ret.count;
+      ret.sumOfSquares = (standardDeviation * standardDeviation + mean * mean) * ret.count;
+    }
+    return ret;
+  }
+
+  public void add(double value) {
+    if (!Double.isFinite(value)) {
+      nodata++;
+      return;
+    }
+    include(value, value);
+    accumulate(value);
+  }
+
+  /** Add the first {@code length} values, NaN and infinities being nodata. */
+  public void add(double[] values, int length) {
+    double lo = Double.POSITIVE_INFINITY;
+    double hi = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < length; i++) {
+      double value = values[i];
+      if (Double.isFinite(value)) {
+        if (value < lo) {
+          lo = value;
+        }
+        if (value > hi) {
+          hi = value;
+        }
+      }
+    }
+    if (lo > hi) {
+      nodata += length;
+      return;
+    }
+    include(lo, hi);
+    for (int i = 0; i < length; i++) {
+      double value = values[i];
+      if (!Double.isFinite(value)) {
+        nodata++;
+      } else {
+        accumulate(value);
+      }
+    }
+  }
+
+  /** Add the first {@code length} integer values, {@code nodataValue} being nodata. */
+  public void add(int[] values, int length, int nodataValue) {
+    int lo = Integer.MAX_VALUE;
+    int hi = Integer.MIN_VALUE;
+    for (int i = 0; i < length; i++) {
+      int value = values[i];
+      if (value != nodataValue) {
+        lo = Math.min(lo, value);
+        hi = Math.max(hi, value);
+      }
+    }
+    if (lo > hi) {
+      nodata += length;
+      return;
+    }
+    include(lo, hi);
+    for (int i = 0; i < length; i++) {
+      if (values[i] == nodataValue) {
+        nodata++;
+      } else {
+        accumulate(values[i]);
+      }
+    }
+  }
+
+  /** Add the statistics of another set of values computed with the same number of bins. */
+  public void merge(RasterStatistics other) {
+    if (other.bins.length != bins.length) {
+      throw new IllegalArgumentException("cannot merge histograms with different bins");
+    }
+    nodata += other.nodata;
+    if (other.count == 0) {
+      return;
+    }
+    include(other.origin, other.origin + other.bins.length * other.binWidth);
+    for (int i = 0; i < other.bins.length; i++) {
+      if (other.bins[i] > 0) {
+        // our bins are at least as wide, so each of the other's bin centers falls in one of ours
+        bins[binOf(other.origin + (i + 0.5) * other.binWidth)] += other.bins[i];
+      }
+    }
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    sum += other.sum;
+    sumOfSquares += other.sumOfSquares;
+    count += other.count;
+  }
+
+  private void accumulate(double value) {
+    bins[binOf(value)]++;
+    if (value < min) {
+      min = value;
+    }
+    if (value > max) {
+      max = value;
+    }
+    sum += value;
+    sumOfSquares += value * value;
+    count++;
+  }
+
+  private int binOf(double value) {
+    int bin = (int) ((value - origin) / binWidth);
+    return bin < 0 ? 0 : Math.min(bin, bins.length - 1);
+  }
+
+  /** Make the histogram span [lo, hi], doubling the bin width as many times as needed. */
+  private void include(double lo, double hi) {
+
+    if (binWidth == 0) {
+      origin = lo;
+      // divided first, as the difference of extreme values overflows
+      binWidth =
+          hi > lo
+              ? hi / bins.length - lo / bins.length
+              : Math.max(Math.abs(lo) * 1.0e-6, 1.0e-9);
+      // the upper bound falls in the last bin
+      binWidth = Math.nextUp(binWidth);
+      return;
+    }
+
+    long[] merged = null;
+    for (int doublings = 0;
+        doublings < MAX_DOUBLINGS && (lo < origin || hi >= origin + bins.length * binWidth);
+        doublings++) {
+      // extending left puts the old range in the upper half of the new one
+      boolean left = lo < origin;
+      int offset = left ? bins.length / 2 : 0;
+      if (merged == null) {
+        merged = new long[bins.length];
+      } else {
+        Arrays.fill(merged, 0);
+      }
+      for (int i = 0; i < bins.length; i++) {
+        merged[offset + i / 2] += bins[i];
+      }
+      System.arraycopy(merged, 0, bins, 0, bins.length);
+      if (left) {
+        origin -= bins.length * binWidth;
+      }
+      binWidth *= 2;
+    }
+  }
+
+  public double getMin() {
+    return count == 0 ? Double.NaN : min;
+  }
+
+  public double getMax() {
+    return count == 0 ? Double.NaN : max;
+  }
+
+  public double getMean() {
+    return count == 0 ? Double.NaN : sum / count;
+  }
+
+  /** Population standard deviation of the valid values. */
+  public double getStandardDeviation() {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    double mean = sum / count;
+    return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+  }
+
+  /** Number of valid (non-nodata) values. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Number of NaN, infinite and declared nodata values. */
+  public long getNodataCount() {
+    return nodata;
+  }
+
+  /** Fraction of nodata in all the values added, 0 when there are none. */
+  public double getNodataFraction() {
+    return count + nodata == 0 ? 0 : (double) nodata / (count + nodata);
+  }
+
+  /** Histogram counts, starting at {@link #getHistogramOrigin()} in steps of the bin width. */
+  public long[] getHistogram() {
+    return bins.clone();
+  }
+
+  /** Lower edge of the first bin. */
+  public double getHistogramOrigin() {
+    return origin;
+  }
+
+  public double getBinWidth() {
+    return binWidth;
+  }
+
+  @Override
+  public String toString() {
+    return "RasterStatistics[min="
+        + getMin()
+        + ", max="
+        + getMax()
+        + ", mean="
+        + getMean()
+        + ", stddev="
+        + getStandardDeviation()
+        + ", count="
+        + count
+        + ", nodata="
+        + nodata
+        + ", histogram="
+        + Arrays.toString(bins)
+        + "]";
+  }
+}
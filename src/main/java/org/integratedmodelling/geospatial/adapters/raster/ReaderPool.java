@@ -0,0 +1,107 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.geotools.coverage.grid.io.UnknownFormat;
+import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.geotools.util.factory.Hints;
+import org.integratedmodelling.common.logging.Logging;
+import org.integratedmodelling.klab.api.exceptions.KlabIOException;
+import org.integratedmodelling.klab.api.exceptions.KlabResourceAccessException;
+
+/**
+ * Pool of open coverage readers for local raster files, so that repeated reads of the same file
+ * skip format probing and header parsing. Readers are keyed by absolute path and modification
+ * time, so a rewritten file gets a new reader. Readers idle for longer than the configured time,
+ * or in excess of the maximum count, are evicted and disposed.
+ *
+ * <p>Readers are shared: callers should synchronize on the reader for the duration of each call
+ * into it, which is short when coverages are read with deferred loading.
+ */
+public class ReaderPool {
+
+  private record Key(String path, long lastModified) {}
+
+  private final Cache<Key, GridCoverage2DReader> readers;
+
+  /**
+   * @param maxReaders maximum number of open readers
+   * @param idleMinutes minutes after the last access after which a reader is disposed
+   */
+  public ReaderPool(int maxReaders, long idleMinutes) {
+    this.readers =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxReaders)
+            .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+            .removalListener(
+                (RemovalListener<Key, GridCoverage2DReader>)
+                    notification -> dispose(notification.getValue()))
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Get the open reader for the file, creating it if necessary.
+   *
+   * @throws KlabResourceAccessException if no format can read the file
+   */
+  public GridCoverage2DReader get(File file) {
+    try {
+      return readers.get(new Key(file.getAbsolutePath(), file.lastModified()), () -> open(file));
+    } catch (UncheckedExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new KlabIOException(e.getCause());
+    } catch (ExecutionException e) {
+      throw new KlabIOException(e.getCause());
+    }
+  }
+
+  /** Dispose of any reader open on the file, e.g. before deleting it. */
+  public void invalidate(File file) {
+    readers.asMap().keySet().removeIf(key -> key.path().equals(file.getAbsolutePath()));
+  }
+
+  public void invalidateAll() {
+    readers.invalidateAll();
+  }
+
+  private static GridCoverage2DReader open(File file) {
+    AbstractGridFormat format = GridFormatFinder.findFormat(file);
+    if (format == null || format instanceof UnknownFormat) {
+      throw new KlabResourceAccessException("no raster format can read " + file);
+    }
+    // this is a bit hackey but does make more geotiffs work
+    Hints hints = new Hints();
+    if (format instanceof GeoTiffFormat) {
+      hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+    }
+    GridCoverage2DReader ret = format.getReader(file, hints);
+    if (ret == null) {
+      throw new KlabResourceAccessException("cannot open a raster reader on " + file);
+    }
+    return ret;
+  }
+
+  private static void dispose(GridCoverage2DReader reader) {
+    if (reader == null) {
+      return;
+    }
+    synchronized (reader) {
+      try {
+        reader.dispose();
+      } catch (Throwable e) {
+        Logging.INSTANCE.warn("error disposing of raster reader: " + e.getMessage());
+      }
+    }
+  }
+}
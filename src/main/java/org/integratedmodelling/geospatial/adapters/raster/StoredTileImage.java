@@ -0,0 +1,113 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import java.awt.Point;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import org.eclipse.imagen.ImageLayout;
+import org.eclipse.imagen.ImageN;
+import org.eclipse.imagen.OpImage;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.TileCache;
+
+/**
+ * An image with the same layout as its source that takes its tiles from a {@link TileStore} when
+ * they are there, and otherwise computes them from the source and stores them. Wrapping the
+ * (deferred) image of a coverage this way means each tile of the source is decoded once, then read
+ * from local disk on later reads, across coverage cache evictions and restarts.
+ *
+ * <p>The source is a window of a file level whose tiles are the file's own tiles: tiles are stored
+ * under their index in the whole level, so reads of overlapping windows share them.
+ *
+ * <p>Tiles in use are kept in the ImageN tile cache under this image, as operations such as warp
+ * and resample pull the same source tile many times per stripe; a decoded tile moves from the
+ * source's cache entry to this image's once it is safely stored.
+ */
+public class StoredTileImage extends PlanarImage {
+
+  private final RenderedImage source;
+  private final TileStore store;
+  private final String key;
+  private final int firstTileX;
+  private final int firstTileY;
+  private final TileCache tileCache = ImageN.getDefaultInstance().getTileCache();
+
+  /**
+   * @param source the image to store the tiles of, whose first tile starts at its origin
+   * @param store the tile store
+   * @param identity the identity of the source data, see {@link TileStore#key(String, int,
+   *     String)}
+   * @param level the pyramid level the source was read at
+   * @param firstTileX column, among the tiles of the whole level, of the first tile of the source
+   * @param firstTileY row, among the tiles of the whole level, of the first tile of the source
+   */
+  public StoredTileImage(
+      RenderedImage source,
+      TileStore store,
+      String identity,
+      int level,
+      int firstTileX,
+      int firstTileY) {
+    super(new ImageLayout(source), null, null);
+    this.source = source;
+    this.store = store;
+    this.key = TileStore.key(identity, level, describeTiles(source));
+    this.firstTileX = firstTileX;
+    this.firstTileY = firstTileY;
+  }
+
+  @Override
+  public Raster getTile(int tileX, int tileY) {
+
+    Raster ret = tileCache == null ? null : tileCache.getTile(this, tileX, tileY);
+    if (ret != null) {
+      return ret;
+    }
+
+    Point location = new Point(tileXToX(tileX), tileYToY(tileY));
+    int storedX = firstTileX + tileX - getMinTileX();
+    int storedY = firstTileY + tileY - getMinTileY();
+    ret = store.get(key, storedX, storedY, getSampleModel(), location);
+    if (ret == null) {
+      ret = source.getTile(tileX, tileY);
+      if (store.put(key, storedX, storedY, ret) && source instanceof OpImage opImage) {
+        // held in our cache entry from now on, so don't keep the decoded tile twice
+        TileCache sourceCache = opImage.getTileCache();
+        if (sourceCache != null) {
+          sourceCache.remove(opImage, tileX, tileY);
+        }
+      }
+    }
+
+    if (tileCache != null) {
+      tileCache.add(this, tileX, tileY, ret);
+    }
+    return ret;
+  }
+
+  /** The cache holding the tiles of this image in memory, or null. */
+  public TileCache getTileCache() {
+    return tileCache;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    if (tileCache != null) {
+      tileCache.removeTiles(this);
+    }
+    super.dispose();
+  }
+
+  /** Tile size and sample layout: the position of the window is in the tile indices. */
+  private static String describeTiles(RenderedImage image) {
+    var sampleModel = image.getSampleModel();
+    return image.getTileWidth()
+        + ","
+        + image.getTileHeight()
+        + "|"
+        + sampleModel.getClass().getSimpleName()
+        + ","
+        + sampleModel.getDataType()
+        + ","
+        + sampleModel.getNumBands();
+  }
+}
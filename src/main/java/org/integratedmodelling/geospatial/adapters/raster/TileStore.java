@@ -0,0 +1,323 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import com.google.common.hash.Hashing;
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.integratedmodelling.common.logging.Logging;
+
+/**
+ * Disk store of decoded, uncompressed raster tiles, so that data decoded (or downloaded) recently
+ * does not need to be decoded again. Each tile is a small file named after its index, in a
+ * directory named after the hash of its source: the source identity (file or service request), the
+ * pyramid level and the tile layout. Tiles are read and written with a single channel operation
+ * each; nothing is synced to disk, as a lost tile only costs a new decode. Directories left empty
+ * by eviction are removed.
+ *
+ * <p>The store is bounded by a disk quota with least-recently-used eviction. The LRU order is kept
+ * in memory and rebuilt from file modification (i.e. write) times on startup, so that hits cost
+ * no metadata writes.
+ */
+public class TileStore {
+
+  private static final int MAGIC = 0x6b54494c; // "kTIL"
+  private static final int HEADER_SIZE = 24;
+  private static final String EXTENSION = ".tile";
+
+  private final Path root;
+  private final long quota;
+  private final LinkedHashMap<Path, Long> index = new LinkedHashMap<>(1024, 0.75f, true);
+  private long size = 0;
+
+  /**
+   * @param root directory for the tiles, created if needed
+   * @param quota maximum total size of the tile files in bytes
+   */
+  public TileStore(File root, long quota) {
+    this.root = root.toPath();
+    this.quota = quota;
+    try {
+      Files.createDirectories(this.root);
+      try (Stream<Path> files = Files.walk(this.root)) {
+        files
+            .filter(p -> p.toString().endsWith(EXTENSION))
+            .sorted(Comparator.comparingLong(p -> p.toFile().lastModified()))
+            .forEach(
+                p -> {
+                  long length = p.toFile().length();
+                  index.put(p, length);
+                  size += length;
+                });
+      }
+      try (Stream<Path> directories = Files.list(this.root)) {
+        directories.filter(Files::isDirectory).forEach(TileStore::deleteIfEmpty);
+      }
+    } catch (IOException e) {
+      Logging.INSTANCE.warn("cannot initialize raster tile store in " + root + ": " + e);
+    }
+  }
+
+  /**
+   * The key for the tiles of a pyramid level. Tile indices under the key are those of the whole
+   * level, so any window read from the level shares its tiles.
+   *
+   * @param identity anything that identifies the source data, e.g. file path, modification time
+   *     and length, or a service request
+   * @param level pyramid level of the data, 0 for full resolution
+   * @param layout description of the tile size and sample model
+   */
+  public static String key(String identity, int level, String layout) {
+    return Hashing.sha256()
+        .hashString(identity + "|" + level + "|" + layout, StandardCharsets.UTF_8)
+        .toString();
+  }
+
+  /**
+   * Read a tile, or return null if it is not in the store.
+   *
+   * @param key the key of the image
+   * @param sampleModel the sample model of the image the tile belongs to
+   * @param location the position of the upper left corner of the tile in the image
+   */
+  public Raster get(String key, int tileX, int tileY, SampleModel sampleModel, Point location) {
+
+    Path path = tilePath(key, tileX, tileY);
+    Long length;
+    synchronized (this) {
+      // access order: this is what makes the tile recently used
+      length = index.get(path);
+    }
+    if (length == null) {
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+      ByteBuffer in = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.nativeOrder());
+      while (in.hasRemaining() && channel.read(in) >= 0) {}
+      in.flip();
+      if (in.remaining() < HEADER_SIZE
+          || in.getInt() != MAGIC
+          || in.getInt() != sampleModel.getDataType()
+          || in.getInt() != sampleModel.getWidth()
+          || in.getInt() != sampleModel.getHeight()) {
+        remove(path);
+        return null;
+      }
+      int banks = in.getInt();
+      int bankSize = in.getInt();
+      DataBuffer buffer = readBuffer(in, sampleModel.getDataType(), banks, bankSize);
+      return Raster.createWritableRaster(
+          sampleModel.createCompatibleSampleModel(sampleModel.getWidth(), sampleModel.getHeight()),
+          buffer,
+          location);
+
+    } catch (IOException | RuntimeException e) {
+      Logging.INSTANCE.warn("dropping unreadable raster tile " + path + ": " + e.getMessage());
+      remove(path);
+      return null;
+    }
+  }
+
+  /**
+   * Store a tile, evicting the least recently used ones if the quota is exceeded.
+   *
+   * @return true if the tile was stored
+   */
+  public boolean put(String key, int tileX, int tileY, Raster tile) {
+
+    // copy into a compact raster at the origin so that the data buffer holds just this tile
+    SampleModel sampleModel =
+        tile.getSampleModel().createCompatibleSampleModel(tile.getWidth(), tile.getHeight());
+    WritableRaster compact = Raster.createWritableRaster(sampleModel, null);
+    compact.setRect(-tile.getMinX(), -tile.getMinY(), tile);
+    DataBuffer buffer = compact.getDataBuffer();
+
+    int elementSize = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    int length = HEADER_SIZE + buffer.getNumBanks() * buffer.getSize() * elementSize;
+    Path path = tilePath(key, tileX, tileY);
+
+    try {
+      ByteBuffer out = ByteBuffer.allocate(length).order(ByteOrder.nativeOrder());
+      out.putInt(MAGIC);
+      out.putInt(buffer.getDataType());
+      out.putInt(sampleModel.getWidth());
+      out.putInt(sampleModel.getHeight());
+      out.putInt(buffer.getNumBanks());
+      out.putInt(buffer.getSize());
+      writeBuffer(out, buffer);
+      out.flip();
+
+      Files.createDirectories(path.getParent());
+      Path temporary;
+      try {
+        temporary = Files.createTempFile(path.getParent(), "tile", ".tmp");
+      } catch (NoSuchFileException e) {
+        // emptied and removed by an eviction in the meantime
+        Files.createDirectories(path.getParent());
+        temporary = Files.createTempFile(path.getParent(), "tile", ".tmp");
+      }
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        while (out.hasRemaining()) {
+          channel.write(out);
+        }
+      }
+      Files.move(
+          temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      Logging.INSTANCE.warn("cannot store raster tile " + path + ": " + e.getMessage());
+      return false;
+    }
+
+    synchronized (this) {
+      Long previous = index.put(path, (long) length);
+      size += length - (previous == null ? 0 : previous);
+      Iterator<Map.Entry<Path, Long>> eldest = index.entrySet().iterator();
+      while (size > quota && eldest.hasNext()) {
+        var entry = eldest.next();
+        if (entry.getKey().equals(path)) {
+          continue;
+        }
+        size -= entry.getValue();
+        eldest.remove();
+        entry.getKey().toFile().delete();
+        deleteIfEmpty(entry.getKey().getParent());
+      }
+    }
+    return true;
+  }
+
+  /** Total size of the stored tiles in bytes. */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  private synchronized void remove(Path path) {
+    Long length = index.remove(path);
+    if (length != null) {
+      size -= length;
+    }
+    path.toFile().delete();
+    deleteIfEmpty(path.getParent());
+  }
+
+  /** Remove a key directory with no tiles left; fails harmlessly if a tile is being written. */
+  private static void deleteIfEmpty(Path directory) {
+    String[] content = directory.toFile().list();
+    if (content != null && content.length == 0) {
+      directory.toFile().delete();
+    }
+  }
+
+  private Path tilePath(String key, int tileX, int tileY) {
+    return root.resolve(key).resolve(tileX + "_" + tileY + EXTENSION);
+  }
+
+  private static DataBuffer readBuffer(ByteBuffer in, int dataType, int banks, int bankSize) {
+    switch (dataType) {
+      case DataBuffer.TYPE_BYTE -> {
+        byte[][] data = new byte[banks][bankSize];
+        for (byte[] bank : data) {
+          in.get(bank);
+        }
+        return new DataBufferByte(data, bankSize);
+      }
+      case DataBuffer.TYPE_SHORT -> {
+        short[][] data = new short[banks][bankSize];
+        for (short[] bank : data) {
+          in.asShortBuffer().get(bank);
+          in.position(in.position() + bankSize * 2);
+        }
+        return new DataBufferShort(data, bankSize);
+      }
+      case DataBuffer.TYPE_USHORT -> {
+        short[][] data = new short[banks][bankSize];
+        for (short[] bank : data) {
+          in.asShortBuffer().get(bank);
+          in.position(in.position() + bankSize * 2);
+        }
+        return new DataBufferUShort(data, bankSize);
+      }
+      case DataBuffer.TYPE_INT -> {
+        int[][] data = new int[banks][bankSize];
+        for (int[] bank : data) {
+          in.asIntBuffer().get(bank);
+          in.position(in.position() + bankSize * 4);
+        }
+        return new DataBufferInt(data, bankSize);
+      }
+      case DataBuffer.TYPE_FLOAT -> {
+        float[][] data = new float[banks][bankSize];
+        for (float[] bank : data) {
+          in.asFloatBuffer().get(bank);
+          in.position(in.position() + bankSize * 4);
+        }
+        return new DataBufferFloat(data, bankSize);
+      }
+      case DataBuffer.TYPE_DOUBLE -> {
+        double[][] data = new double[banks][bankSize];
+        for (double[] bank : data) {
+          in.asDoubleBuffer().get(bank);
+          in.position(in.position() + bankSize * 8);
+        }
+        return new DataBufferDouble(data, bankSize);
+      }
+      default -> throw new IllegalArgumentException("unsupported data type " + dataType);
+    }
+  }
+
+  private static void writeBuffer(ByteBuffer out, DataBuffer buffer) {
+    for (int b = 0; b < buffer.getNumBanks(); b++) {
+      switch (buffer) {
+        case DataBufferByte bytes -> out.put(bytes.getData(b));
+        case DataBufferShort shorts -> {
+          out.asShortBuffer().put(shorts.getData(b));
+          out.position(out.position() + buffer.getSize() * 2);
+        }
+        case DataBufferUShort shorts -> {
+          out.asShortBuffer().put(shorts.getData(b));
+          out.position(out.position() + buffer.getSize() * 2);
+        }
+        case DataBufferInt ints -> {
+          out.asIntBuffer().put(ints.getData(b));
+          out.position(out.position() + buffer.getSize() * 4);
+        }
+        case DataBufferFloat floats -> {
+          out.asFloatBuffer().put(floats.getData(b));
+          out.position(out.position() + buffer.getSize() * 4);
+        }
+        case DataBufferDouble doubles -> {
+          out.asDoubleBuffer().put(doubles.getData(b));
+          out.position(out.position() + buffer.getSize() * 8);
+        }
+        default ->
+            throw new IllegalArgumentException(
+                "unsupported data buffer " + buffer.getClass().getSimpleName());
+      }
+    }
+  }
+}
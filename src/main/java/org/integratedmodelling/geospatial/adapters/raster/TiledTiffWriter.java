@@ -0,0 +1,223 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriter;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.eclipse.imagen.Interpolation;
+import org.geotools.api.parameter.GeneralParameterValue;
+import org.geotools.api.parameter.ParameterValue;
+import org.geotools.coverage.NoDataContainer;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+import org.geotools.coverage.processing.Operations;
+import org.geotools.coverage.util.CoverageUtilities;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.integratedmodelling.common.logging.Logging;
+import org.integratedmodelling.klab.api.exceptions.KlabIOException;
+
+/**
+ * Rewrites GeoTIFFs as tiled GeoTIFFs with square tiles, Deflate compression and internal overviews
+ * halving the resolution down to a single tile, stored as reduced-resolution subfiles after the
+ * full-resolution image. Windowed reads of such a file only decode the tiles they intersect, and
+ * reads at coarse resolution use an overview (see {@link OverviewSelector}).
+ *
+ * <p>This is not a Cloud Optimized GeoTIFF: the overviews and their directories follow the
+ * full-resolution image instead of preceding it, which costs nothing on local files but makes
+ * remote readers fetch more than the header to find them.
+ */
+public final class TiledTiffWriter {
+
+  /** Side of the tiles of the rewritten files, overridable as a property. */
+  public static final int TILE_SIZE = Integer.getInteger("klab.geospatial.tiff.tile", 512);
+
+  /** How overview pixels are computed from the level above. */
+  public enum Resampling {
+    /** Pick one pixel: the only choice for categories and codes. */
+    NEAREST,
+    /**
+     * Average the four pixels, for continuous values. Not used when the file declares a nodata
+     * value other than NaN, which would be averaged into the valid pixels around it.
+     */
+    AVERAGE;
+
+    /** Nearest for integer samples, which are usually categories, average for the rest. */
+    public static Resampling getDefault(int dataType) {
+      return dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE
+          ? AVERAGE
+          : NEAREST;
+    }
+  }
+
+  private TiledTiffWriter() {}
+
+  /**
+   * True if the file is already tiled with internal overviews, or is small enough to fit a single
+   * tile, so that rewriting it would not make reads any cheaper.
+   */
+  public static boolean isOptimized(File file) {
+    try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return false;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input);
+        if (Math.max(reader.getWidth(0), reader.getHeight(0)) <= TILE_SIZE) {
+          return true;
+        }
+        return reader.isImageTiled(0) && reader.getNumImages(true) > 1;
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      throw new KlabIOException(e);
+    }
+  }
+
+  /**
+   * Write a tiled copy of the source GeoTIFF with internal overviews. The target is overwritten.
+   *
+   * @param resampling how to compute overviews, or null to choose from the sample type
+   */
+  public static void write(File source, File target, Resampling resampling) {
+
+    GeoTiffReader reader = null;
+    try {
+      reader = new GeoTiffReader(source);
+      GridCoverage2D coverage = reader.read(getReadParameters());
+      if (resampling == null) {
+        resampling =
+            Resampling.getDefault(coverage.getRenderedImage().getSampleModel().getDataType());
+      }
+      if (resampling == Resampling.AVERAGE && hasNodataValue(coverage)) {
+        Logging.INSTANCE.info(
+            source.getName() + " declares a nodata value: overviews use nearest neighbour");
+        resampling = Resampling.NEAREST;
+      }
+
+      GeoTiffWriter writer = new GeoTiffWriter(target);
+      try {
+        writer.setMetadataValue(
+            Integer.toString(BaselineTIFFTagSet.TAG_SOFTWARE),
+            "k.LAB (www.integratedmodelling.org)");
+        writer.write(coverage, getWriteParameters());
+      } finally {
+        writer.dispose();
+      }
+
+      writeOverviews(coverage, target, resampling);
+      coverage.dispose(true);
+
+    } catch (IOException e) {
+      throw new KlabIOException(e);
+    } finally {
+      if (reader != null) {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Append the overviews to a file that contains only the full-resolution image. Each level is
+   * defined on the one above but not held in memory, so writing a level computes again from the
+   * source whatever tiles of the levels above are no longer in the tile cache.
+   */
+  private static void writeOverviews(GridCoverage2D coverage, File target, Resampling resampling)
+      throws IOException {
+
+    TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi().createWriterInstance();
+    try (ImageOutputStream output = ImageIO.createImageOutputStream(target)) {
+      writer.setOutput(output);
+      ImageWriteParam parameters = writer.getDefaultWriteParam();
+      parameters.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+      parameters.setTiling(TILE_SIZE, TILE_SIZE, 0, 0);
+      parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      parameters.setCompressionType("Deflate");
+
+      GridCoverage2D level = coverage;
+      int levels = 0;
+      while (Math.max(level.getRenderedImage().getWidth(), level.getRenderedImage().getHeight())
+          > TILE_SIZE) {
+        level =
+            (GridCoverage2D)
+                (resampling == Resampling.AVERAGE
+                    ? Operations.DEFAULT.subsampleAverage(level, 0.5, 0.5)
+                    : Operations.DEFAULT.scale(
+                        level,
+                        0.5,
+                        0.5,
+                        0,
+                        0,
+                        Interpolation.getInstance(Interpolation.INTERP_NEAREST)));
+        RenderedImage image = level.getRenderedImage();
+        TIFFImageMetadata metadata =
+            (TIFFImageMetadata)
+                writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), parameters);
+        metadata.addShortOrLongField(
+            BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE,
+            BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION);
+        writer.writeInsert(-1, new IIOImage(image, null, metadata), parameters);
+        levels++;
+      }
+      Logging.INSTANCE.debug("wrote " + levels + " overviews in " + target.getName());
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  /**
+   * True if any band has a nodata value that averaging would mix with valid pixels. NaN is
+   * excluded, as any average including it stays NaN.
+   */
+  private static boolean hasNodataValue(GridCoverage2D coverage) {
+    NoDataContainer container = CoverageUtilities.getNoDataProperty(coverage);
+    if (container != null
+        && container.getAsArray() != null
+        && Arrays.stream(container.getAsArray()).anyMatch(d -> !Double.isNaN(d))) {
+      return true;
+    }
+    for (int band = 0; band < coverage.getNumSampleDimensions(); band++) {
+      double[] nodata = coverage.getSampleDimension(band).getNoDataValues();
+      if (nodata != null && Arrays.stream(nodata).anyMatch(d -> !Double.isNaN(d))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static GeneralParameterValue[] getReadParameters() {
+    ParameterValue<Boolean> deferred = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+    deferred.setValue(true);
+    return new GeneralParameterValue[] {deferred};
+  }
+
+  private static GeneralParameterValue[] getWriteParameters() {
+    GeoTiffWriteParams parameters = new GeoTiffWriteParams();
+    parameters.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+    parameters.setTiling(TILE_SIZE, TILE_SIZE);
+    parameters.setCompressionMode(GeoToolsWriteParams.MODE_EXPLICIT);
+    parameters.setCompressionType("Deflate");
+    ParameterValue<GeoToolsWriteParams> value =
+        AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.createValue();
+    value.setValue(parameters);
+    return new GeneralParameterValue[] {value};
+  }
+}
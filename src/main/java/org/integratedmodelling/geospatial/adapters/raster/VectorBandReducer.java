@@ -0,0 +1,86 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD band reducer using the incubating Vector API. Lanes run over cells, bands are folded one
+ * plane at a time, so the cost per cell is one vector operation per band divided by the lane count.
+ * Same semantics as {@link BandMixing.ScalarReducer}, which also handles the loop tail.
+ *
+ * <p>Only compiled with the {@code vector} Maven profile, and only instantiated reflectively by
+ * {@link BandMixing#getReducer()} when {@code jdk.incubator.vector} is available.
+ */
+final class VectorBandReducer implements BandMixing.Reducer {
+
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  @Override
+  public void reduce(
+      BandMixing.Operation operation, double[][] planes, int length, double[] output) {
+
+    int upperBound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < upperBound; i += SPECIES.length()) {
+      switch (operation) {
+        case MAX_VALUE, MIN_VALUE -> extreme(operation, planes, i, output);
+        case AVG_VALUE, SUM_VALUE -> sum(operation, planes, i, output);
+        case BAND_MAX_VALUE, BAND_MIN_VALUE -> bandOfExtreme(operation, planes, i, output);
+      }
+    }
+    for (; i < length; i++) {
+      output[i] = BandMixing.ScalarReducer.reduce(operation, planes, i);
+    }
+  }
+
+  private static void extreme(
+      BandMixing.Operation operation, double[][] planes, int i, double[] output) {
+    boolean max = operation == BandMixing.Operation.MAX_VALUE;
+    var result =
+        DoubleVector.broadcast(SPECIES, max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+    VectorMask<Double> any = SPECIES.maskAll(false);
+    for (double[] plane : planes) {
+      var value = DoubleVector.fromArray(SPECIES, plane, i);
+      var valid = value.test(VectorOperators.IS_NAN).not();
+      result = result.blend(max ? result.max(value) : result.min(value), valid);
+      any = any.or(valid);
+    }
+    result.blend(Double.NaN, any.not()).intoArray(output, i);
+  }
+
+  private static void sum(
+      BandMixing.Operation operation, double[][] planes, int i, double[] output) {
+    var sum = DoubleVector.zero(SPECIES);
+    var count = DoubleVector.zero(SPECIES);
+    for (double[] plane : planes) {
+      var value = DoubleVector.fromArray(SPECIES, plane, i);
+      var valid = value.test(VectorOperators.IS_NAN).not();
+      sum = sum.add(value, valid);
+      count = count.add(1.0, valid);
+    }
+    var none = count.compare(VectorOperators.EQ, 0.0);
+    var result = operation == BandMixing.Operation.AVG_VALUE ? sum.div(count) : sum;
+    result.blend(Double.NaN, none).intoArray(output, i);
+  }
+
+  private static void bandOfExtreme(
+      BandMixing.Operation operation, double[][] planes, int i, double[] output) {
+    boolean max = operation == BandMixing.Operation.BAND_MAX_VALUE;
+    var extreme = DoubleVector.broadcast(SPECIES, Double.NaN);
+    var result = DoubleVector.broadcast(SPECIES, Double.NaN);
+    VectorMask<Double> any = SPECIES.maskAll(false);
+    for (int band = 0; band < planes.length; band++) {
+      var value = DoubleVector.fromArray(SPECIES, planes[band], i);
+      var valid = value.test(VectorOperators.IS_NAN).not();
+      var better =
+          value.compare(max ? VectorOperators.GT : VectorOperators.LT, extreme).or(any.not());
+      var update = better.and(valid);
+      extreme = extreme.blend(value, update);
+      result = result.blend((double) band, update);
+      any = any.or(valid);
+    }
+    result.intoArray(output, i);
+  }
+}
@@ -27,6 +27,7 @@ import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.crs.HMCrsRegistry;
 import org.hortonmachine.gears.utils.crs.HMCrsTransformer;
+import org.integratedmodelling.geospatial.utils.GeospatialEvents;
 import org.integratedmodelling.klab.api.exceptions.KlabIllegalStateException;
 import org.integratedmodelling.klab.api.exceptions.KlabResourceAccessException;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Projection;
@@ -295,6 +296,8 @@ public class StacResource {
 
     public GridCoverage2D getCoverage(Space space, Time time, String assetId, Integer band, Scope scope)
         throws Exception {
+      var event = new GeospatialEvents.RemoteFetch();
+      event.begin();
       LogProgressMonitor lpm = new LogProgressMonitor();
       var manager = new HMStacManager(catalog.getUrl(), lpm);
       manager.open();
@@ -434,6 +437,18 @@ public class StacResource {
       if (band != null) { // Which means theat it's a Multi Band COG
         coverage = (GridCoverage2D) Operations.DEFAULT.selectSampleDimension(coverage, new int[]{band});
       }
+
+      event.end();
+      if (event.shouldCommit()) {
+        // the HortonMachine reader does not report the bytes it fetched
+        event.service = "stac";
+        event.source = catalog.getUrl() + "|" + id + "|" + assetId;
+        event.gridWidth = (int) grid.getXCells();
+        event.gridHeight = (int) grid.getYCells();
+        event.bands = coverage.getNumSampleDimensions();
+        event.cache = GeospatialEvents.MISS;
+        event.commit();
+      }
       return coverage;
     }
 
@@ -260,6 +260,12 @@ public class WCSServiceManager {
       return originalProjection;
     }
 
+    /** The number of bands described by the service, zero if it does not describe them. */
+    public int getBandCount() {
+      describeCoverage();
+      return bands.size();
+    }
+
     public Set<Double> getNodata(int band) {
       describeCoverage();
       return bands.size() > band ? bands.get(band).nodata : nodata;
@@ -21,6 +21,7 @@ import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.StyleBuilder;
 import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.geospatial.adapters.raster.*;
+import org.integratedmodelling.geospatial.utils.GeospatialEvents;
 import org.integratedmodelling.geospatial.utils.Geotools;
 import org.integratedmodelling.klab.api.collections.Pair;
 import org.integratedmodelling.klab.api.collections.Parameters;
@@ -110,6 +111,8 @@ public class GeodataIO {
               + ", scanner="
               + scanner);
 
+      var event = new GeospatialEvents.Export();
+      event.begin();
       var file = File.createTempFile("klab", ".png");
       var coverage =
           Geotools.stateToCoverage(
@@ -147,6 +150,7 @@ public class GeodataIO {
       ImageIO.write(image, "png", file);
       g2d.dispose();
       map.dispose();
+      commitExport(event, observation, coverage, "png", file);
 
       return new FileInputStream(file);
     } catch (IOException e) {
@@ -194,6 +198,8 @@ public class GeodataIO {
       String format,
       ContextScope scope) {
 
+    var event = new GeospatialEvents.Export();
+    event.begin();
     boolean addStyle = file.getName().endsWith(".zip");
     boolean samefolder =
         true; // TODO options.get(OPTION_DO_NOT_CREATE_INDIVIDUAL_FOLDERS, Boolean.FALSE);
@@ -258,6 +264,7 @@ public class GeodataIO {
             "k.LAB (www.integratedmodelling.org)");
 
         writer.write(coverage, null);
+        commitExport(event, observation, coverage, format, rasterFile);
 
         if (dir != null && addStyle) {
           if (!doNotZip) {
@@ -283,6 +290,26 @@ public class GeodataIO {
     return null;
   }
 
+  private static void commitExport(
+      GeospatialEvents.Export event,
+      Observation observation,
+      GridCoverage2D coverage,
+      String format,
+      File file) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.urn = observation.getUrn();
+      event.format = format;
+      if (coverage != null) {
+        event.gridWidth = coverage.getRenderedImage().getWidth();
+        event.gridHeight = coverage.getRenderedImage().getHeight();
+        event.bands = coverage.getNumSampleDimensions();
+      }
+      event.bytes = file.length();
+      event.commit();
+    }
+  }
+
   //  private void writeAuxXml(File auxFile, DataKey dataKey) throws Exception {
   //
   //    RasterAuxXml rasterAuxXml = new RasterAuxXml();
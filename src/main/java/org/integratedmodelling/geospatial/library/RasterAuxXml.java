@@ -1,24 +1,280 @@
 package org.integratedmodelling.geospatial.library;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.annotation.XmlAnyElement;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlValue;
 
+import org.integratedmodelling.geospatial.adapters.raster.RasterStatistics;
+import org.integratedmodelling.klab.api.exceptions.KlabIOException;
+
+/**
+ * The GDAL PAM sidecar ({@code <file>.aux.xml}) of a raster, with the band statistics and histogram
+ * in the keys and layout written by {@code gdalinfo -stats -hist}, so that GDAL and QGIS read the
+ * same statistics. Elements that are not modeled here are kept when the file is rewritten.
+ */
 @XmlRootElement(name = "PAMDataset")
 public class RasterAuxXml {
 
+  static final String STATISTICS_MINIMUM = "STATISTICS_MINIMUM";
+  static final String STATISTICS_MAXIMUM = "STATISTICS_MAXIMUM";
+  static final String STATISTICS_MEAN = "STATISTICS_MEAN";
+  static final String STATISTICS_STDDEV = "STATISTICS_STDDEV";
+  static final String STATISTICS_VALID_PERCENT = "STATISTICS_VALID_PERCENT";
+
+  private static JAXBContext context;
+
+  /**
+   * All the bands described in the sidecar. This replaces the former single {@code rasterBand}
+   * field, which only held the first band: code that set it must add to this list instead.
+   */
   @XmlElement(name = "PAMRasterBand")
-  public PAMRasterBand rasterBand;
+  public List<PAMRasterBand> rasterBands = new ArrayList<>();
+
+  @XmlAnyElement public List<Object> other = new ArrayList<>();
+
+  /** The sidecar of the passed raster file, which may not exist. */
+  public static File getFile(File raster) {
+    return new File(raster.getParentFile(), raster.getName() + ".aux.xml");
+  }
+
+  /**
+   * Read a sidecar.
+   *
+   * @return the content, or null if the file does not exist
+   * @throws KlabIOException if the file exists but cannot be parsed, so that callers do not
+   *     replace a sidecar they do not understand
+   */
+  public static RasterAuxXml read(File auxFile) {
+    if (!auxFile.isFile()) {
+      return null;
+    }
+    try {
+      return (RasterAuxXml) getContext().createUnmarshaller().unmarshal(auxFile);
+    } catch (JAXBException e) {
+      throw new KlabIOException(e);
+    }
+  }
+
+  public void write(File auxFile) {
+    try {
+      Marshaller marshaller = getContext().createMarshaller();
+      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+      marshaller.marshal(this, auxFile);
+    } catch (JAXBException e) {
+      throw new KlabIOException(e);
+    }
+  }
+
+  /**
+   * The statistics of a band, if all of them (including the histogram) are recorded.
+   *
+   * @param band 1-based band number
+   * @param cells number of cells in the band, needed to recover the nodata count
+   * @return the statistics or null
+   */
+  public RasterStatistics getStatistics(int band, long cells) {
+
+    PAMRasterBand rasterBand = getBand(band, false);
+    if (rasterBand == null
+        || rasterBand.histograms == null
+        || rasterBand.histograms.items.isEmpty()) {
+      return null;
+    }
+
+    HistItem histogram = rasterBand.histograms.items.get(0);
+    Double min = rasterBand.getMetadata(STATISTICS_MINIMUM);
+    Double max = rasterBand.getMetadata(STATISTICS_MAXIMUM);
+    Double mean = rasterBand.getMetadata(STATISTICS_MEAN);
+    Double stddev = rasterBand.getMetadata(STATISTICS_STDDEV);
+    if (min == null
+        || max == null
+        || mean == null
+        || stddev == null
+        || histogram.counts == null
+        || histogram.bucketCount <= 0
+        || histogram.approximate != 0) {
+      return null;
+    }
+
+    String[] tokens = histogram.counts.split("\\|");
+    if (tokens.length != histogram.bucketCount) {
+      return null;
+    }
+    long[] counts = new long[tokens.length];
+    long valid = 0;
+    try {
+      for (int i = 0; i < tokens.length; i++) {
+        counts[i] = Long.parseLong(tokens[i].trim());
+        valid += counts[i];
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+
+    return RasterStatistics.of(
+        min,
+        max,
+        mean,
+        stddev,
+        histogram.min,
+        (histogram.max - histogram.min) / histogram.bucketCount,
+        counts,
+        Math.max(0, cells - valid));
+  }
+
+  /**
+   * Record the statistics of a band, replacing any previous statistics and histograms.
+   *
+   * @param band 1-based band number
+   */
+  public void setStatistics(int band, RasterStatistics statistics) {
+
+    PAMRasterBand rasterBand = getBand(band, true);
+    long[] counts = statistics.getHistogram();
+    StringBuilder histogram = new StringBuilder();
+    for (int i = 0; i < counts.length; i++) {
+      if (i > 0) {
+        histogram.append('|');
+      }
+      histogram.append(counts[i]);
+    }
+
+    HistItem item = new HistItem();
+    item.min = statistics.getHistogramOrigin();
+    item.max = statistics.getHistogramOrigin() + counts.length * statistics.getBinWidth();
+    item.bucketCount = counts.length;
+    item.counts = histogram.toString();
+    rasterBand.histograms = new Histograms();
+    rasterBand.histograms.items.add(item);
+
+    rasterBand.setMetadata(STATISTICS_MINIMUM, statistics.getMin());
+    rasterBand.setMetadata(STATISTICS_MAXIMUM, statistics.getMax());
+    rasterBand.setMetadata(STATISTICS_MEAN, statistics.getMean());
+    rasterBand.setMetadata(STATISTICS_STDDEV, statistics.getStandardDeviation());
+    rasterBand.setMetadata(
+        STATISTICS_VALID_PERCENT, 100.0 * (1.0 - statistics.getNodataFraction()));
+  }
+
+  private PAMRasterBand getBand(int band, boolean create) {
+    for (PAMRasterBand rasterBand : rasterBands) {
+      if (rasterBand.band == band) {
+        return rasterBand;
+      }
+    }
+    if (!create) {
+      return null;
+    }
+    PAMRasterBand ret = new PAMRasterBand();
+    ret.band = band;
+    rasterBands.add(ret);
+    return ret;
+  }
+
+  private static synchronized JAXBContext getContext() throws JAXBException {
+    if (context == null) {
+      context = JAXBContext.newInstance(RasterAuxXml.class);
+    }
+    return context;
+  }
 }
 
 class PAMRasterBand {
   @XmlAttribute public int band;
 
+  @XmlElement(name = "Histograms")
+  public Histograms histograms;
+
+  @XmlElement(name = "Metadata")
+  public List<Metadata> metadata = new ArrayList<>();
+
   @XmlElement(name = "GDALRasterAttributeTable")
   public GDALRasterAttributeTable attributeTable;
+
+  @XmlAnyElement public List<Object> other = new ArrayList<>();
+
+  /** A value in the default metadata domain, or null if absent or not a number. */
+  Double getMetadata(String key) {
+    for (Metadata domain : metadata) {
+      if (domain.domain == null || domain.domain.isEmpty()) {
+        for (MDI item : domain.items) {
+          if (key.equals(item.key)) {
+            try {
+              return Double.parseDouble(item.value.trim());
+            } catch (NumberFormatException | NullPointerException e) {
+              return null;
+            }
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  void setMetadata(String key, double value) {
+    Metadata domain = null;
+    for (Metadata m : metadata) {
+      if (m.domain == null || m.domain.isEmpty()) {
+        domain = m;
+        break;
+      }
+    }
+    if (domain == null) {
+      domain = new Metadata();
+      metadata.add(domain);
+    }
+    domain.items.removeIf(item -> key.equals(item.key));
+    MDI item = new MDI();
+    item.key = key;
+    item.value = Double.toString(value);
+    domain.items.add(item);
+  }
+}
+
+class Histograms {
+  @XmlElement(name = "HistItem")
+  public List<HistItem> items = new ArrayList<>();
+}
+
+class HistItem {
+  @XmlElement(name = "HistMin")
+  public double min;
+
+  @XmlElement(name = "HistMax")
+  public double max;
+
+  @XmlElement(name = "BucketCount")
+  public int bucketCount;
+
+  @XmlElement(name = "IncludeOutOfRange")
+  public int includeOutOfRange;
+
+  @XmlElement(name = "Approximate")
+  public int approximate;
+
+  @XmlElement(name = "HistCounts")
+  public String counts;
+}
+
+class Metadata {
+  @XmlAttribute public String domain;
+
+  @XmlElement(name = "MDI")
+  public List<MDI> items = new ArrayList<>();
+}
+
+class MDI {
+  @XmlAttribute public String key;
+
+  @XmlValue public String value;
 }
 
 class GDALRasterAttributeTable {
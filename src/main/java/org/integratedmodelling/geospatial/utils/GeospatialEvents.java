@@ -0,0 +1,137 @@
+package org.integratedmodelling.geospatial.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the geospatial work that otherwise shows up only as ImageN and
+ * GeoTools frames. The events are enabled with no threshold, so any recording captures them,
+ * including one started with the default settings; they are in the {@code k.LAB / Geospatial}
+ * category and can be turned off per event in the recording settings (e.g. {@code
+ * org.integratedmodelling.geospatial.Encode#enabled=false}). When no recording is running {@link
+ * Event#shouldCommit()} is false, and instrumented code only fills in the fields after checking it.
+ *
+ * <p>Cache outcomes are {@code hit} or {@code miss}; grid sizes are zero when unknown.
+ */
+public final class GeospatialEvents {
+
+  public static final String HIT = "hit";
+  public static final String MISS = "miss";
+
+  private GeospatialEvents() {}
+
+  @Name("org.integratedmodelling.geospatial.Encode")
+  @Label("Raster Encode")
+  @Category({"k.LAB", "Geospatial"})
+  @Description("Encoding of a coverage into the storage of an observation")
+  @StackTrace(false)
+  public static final class Encode extends Event {
+
+    @Label("Resource URN")
+    public String urn;
+
+    @Label("Grid Width")
+    public int gridWidth;
+
+    @Label("Grid Height")
+    public int gridHeight;
+
+    @Label("Bands")
+    public int bands;
+
+    @Label("Encoding Mode")
+    public String mode;
+
+    @Label("Storage")
+    public String storage;
+  }
+
+  @Name("org.integratedmodelling.geospatial.Coverage")
+  @Label("Raster Coverage")
+  @Category({"k.LAB", "Geospatial"})
+  @Description("Retrieval of a local raster coverage resampled to the context grid")
+  @StackTrace(false)
+  public static final class Coverage extends Event {
+
+    @Label("Resource URN")
+    public String urn;
+
+    @Label("File")
+    public String file;
+
+    @Label("Grid Width")
+    public int gridWidth;
+
+    @Label("Grid Height")
+    public int gridHeight;
+
+    @Label("Bands")
+    public int bands;
+
+    @Label("Cache Outcome")
+    public String cache;
+  }
+
+  @Name("org.integratedmodelling.geospatial.RemoteFetch")
+  @Label("Remote Coverage Fetch")
+  @Category({"k.LAB", "Geospatial"})
+  @Description("Download of coverage data from a WCS service or STAC catalog")
+  @StackTrace(false)
+  public static final class RemoteFetch extends Event {
+
+    @Label("Service")
+    public String service;
+
+    @Label("Source")
+    @Description("Request URL, or collection and asset")
+    public String source;
+
+    @Label("Grid Width")
+    public int gridWidth;
+
+    @Label("Grid Height")
+    public int gridHeight;
+
+    @Label("Bands")
+    public int bands;
+
+    @Label("Bytes Transferred")
+    @DataAmount
+    public long bytes;
+
+    @Label("Cache Outcome")
+    public String cache;
+  }
+
+  @Name("org.integratedmodelling.geospatial.Export")
+  @Label("Geodata Export")
+  @Category({"k.LAB", "Geospatial"})
+  @Description("Export of an observation to a geospatial file format")
+  @StackTrace(false)
+  public static final class Export extends Event {
+
+    @Label("Observation URN")
+    public String urn;
+
+    @Label("Format")
+    public String format;
+
+    @Label("Grid Width")
+    public int gridWidth;
+
+    @Label("Grid Height")
+    public int gridHeight;
+
+    @Label("Bands")
+    public int bands;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytes;
+  }
+}
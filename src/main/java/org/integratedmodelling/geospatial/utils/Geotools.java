@@ -15,6 +15,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.metadata.iso.citation.Citations;
 import org.geotools.referencing.CRS;
 import org.integratedmodelling.common.knowledge.GeometryRepository;
+import org.integratedmodelling.geospatial.adapters.raster.RasterStatistics;
 import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.data.mediation.classification.DataKey;
@@ -304,9 +305,7 @@ public class Geotools {
       }
     }
 
-    double min = Double.NaN;
-    double max = Double.NaN;
-    long ndata = 0;
+    var statistics = new RasterStatistics();
     var mapper =
         scanner
             .shard()
@@ -330,26 +329,22 @@ public class Geotools {
           o = transformation.apply(o);
         }
         float value = ((Number) o).floatValue();
-        if (Double.isNaN(min) || min > value) {
-          min = value;
-        }
-        if (Double.isNaN(max) || max < value) {
-          max = value;
-        }
-        ndata++;
+        statistics.add(value);
         raster.setSample((int) xy[0], (int) xy[1], 0, value);
       } else if (o instanceof Boolean) {
         if (transformation != null) {
           o = transformation.apply(o);
         }
-        ndata++;
-        raster.setSample((int) xy[0], (int) xy[1], 0, (float) (((Boolean) o) ? 1. : 0.));
+        float value = ((Boolean) o) ? 1f : 0f;
+        statistics.add(value);
+        raster.setSample((int) xy[0], (int) xy[1], 0, value);
       } else if (o instanceof Concept) {
         if (transformation != null) {
           o = transformation.apply(o);
         }
-        ndata++;
-        raster.setSample((int) xy[0], (int) xy[1], 0, (float) dataKey.reverseLookup((Concept) o));
+        float value = (float) dataKey.reverseLookup((Concept) o);
+        statistics.add(value);
+        raster.setSample((int) xy[0], (int) xy[1], 0, value);
       }
     }
 
@@ -393,21 +388,44 @@ public class Geotools {
       //      }
     }
 
-    // TODO stick these somewhere
+    /*
+     * Statistics of the values collected in the loop above, kept in the coverage properties.
+     */
     Map<String, Object> properties = new HashMap<>();
-    properties.put("dataRange", new double[] {min, max});
-    properties.put("dataCount", ndata);
-
-    // System.out.println(state.getObservable().getReferenceName() + " raster has range " + min
-    // + " to " + max + " (" + ndata + ")");
+    properties.put(RasterStatistics.COVERAGE_PROPERTY, statistics);
+    properties.put("dataRange", new double[] {statistics.getMin(), statistics.getMax()});
+    properties.put("dataCount", statistics.getCount());
 
     var jtsEnvelope = checkEnvelope(envelope);
-    if (key == null || pork) {
-      return rasterFactory.create(state.getObservable().getName(), raster, jtsEnvelope);
-    }
+    GridCoverage2D ret =
+        key == null || pork
+            ? rasterFactory.create(state.getObservable().getName(), raster, jtsEnvelope)
+            : rasterFactory.create(
+                state.getObservable().getName(),
+                raster,
+                jtsEnvelope,
+                new GridSampleDimension[] {key});
 
     return rasterFactory.create(
-        state.getObservable().getName(), raster, jtsEnvelope, new GridSampleDimension[] {key});
+        ret.getName(),
+        ret.getRenderedImage(),
+        ret.getGridGeometry(),
+        ret.getSampleDimensions(),
+        null,
+        properties);
+  }
+
+  /**
+   * The statistics computed when the coverage was made from a state with {@link
+   * #stateToCoverage(Observation, Storage.Scanner, int, Float, boolean, ContextScope, Function)}.
+   *
+   * @return the statistics or null if the coverage was made otherwise
+   */
+  public static RasterStatistics getStatistics(GridCoverage2D coverage) {
+    return coverage.getProperty(RasterStatistics.COVERAGE_PROPERTY)
+            instanceof RasterStatistics statistics
+        ? statistics
+        : null;
   }
 
   private static Object fetch(Storage.Scanner scanner) {
@@ -524,25 +542,27 @@ public class Geotools {
     return crs;
   }
 
-  public static void coverageToState(
+  public static RasterStatistics coverageToState(
       GridCoverage2D layer, Observation state, Storage.Scanner scanner) {
-    coverageToState(state, layer, scanner, null, null);
+    return coverageToState(state, layer, scanner, null, null);
   }
 
-  public static void coverageToState(
+  public static RasterStatistics coverageToState(
       Observation observation,
       GridCoverage2D layer,
       Storage.Scanner scanner,
       Function<Double, Double> transformation,
       ContextScope scope) {
-    coverageToState(observation, layer, scanner, transformation, null, scope);
+    return coverageToState(observation, layer, scanner, transformation, null, scope);
   }
 
   /**
    * Dump the data from a coverage into a pre-existing state. Use a DoubleScanner, which will wrap
    * the original if needed.
+   *
+   * @return the statistics of the values written
    */
-  public static void coverageToState(
+  public static RasterStatistics coverageToState(
       Observation observation,
       GridCoverage2D layer,
       Storage.Scanner scanner,
@@ -553,9 +573,7 @@ public class Geotools {
     var scale = GeometryRepository.INSTANCE.scale(scanner.shard().getGeometry());
     var grid = scale.getSpace().as(Tile.class).getGrid();
     var dataKey = scope.getDigitalTwin().getStorageManager().getStorage(observation).getKey();
-    double min = Double.NaN;
-    double max = Double.NaN;
-    long ndata = 0;
+    var statistics = new RasterStatistics();
 
     RenderedImage image = layer.getRenderedImage();
     var iterator = RandomIterFactory.create(image, null);
@@ -580,25 +598,14 @@ public class Geotools {
         }
       }
 
-      if (Double.isNaN(min) || min > value) {
-        min = value;
-      }
-      if (Double.isNaN(max) || max < value) {
-        max = value;
-      }
-
-      if (!Double.isNaN(value)) {
-        ndata++;
-      }
+      statistics.add(value);
 
       //      for (ILocator spp : spl) {
       addValue(scanner, value, dataKey);
       //      }
     }
 
-    // System.out.println(state.getObservable().getReferenceName() + " raster has range " + min
-    // + " to " + max + " (" + ndata + ")");
-
+    return statistics;
   }
 
   private static void addValue(Storage.Scanner scanner, Double value, DataKey dataKey) {
@@ -0,0 +1,163 @@
+package org.integratedmodelling.geospatial.adapters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.util.Map;
+import org.eclipse.imagen.InterpolationNearest;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.RasterFactory;
+import org.eclipse.imagen.TiledImage;
+import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.processing.Operations;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.integratedmodelling.geospatial.adapters.raster.RasterEncoder;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.exceptions.KlabValidationException;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockMakers;
+
+/**
+ * A multi-band resource with {@code band=1} encodes band 1 whichever adapter produced the coverage:
+ * the raster and WCS adapters pass all the bands and the band parameter, STAC selects the band
+ * before encoding.
+ */
+class BandSelectionTest {
+
+  private static final int WIDTH = 20;
+  private static final int HEIGHT = 10;
+  private static final int BANDS = 3;
+
+  @Test
+  void rasterPath() {
+    // URN parameters are the resource parameters overridden by the URN
+    var parameters = parameters(Map.of(RasterAdapter.BAND_PARAM, 1));
+    assertBand(1, encode(resource(1), parameters, coverage(BANDS)));
+  }
+
+  @Test
+  void bandFromTheResourceOnly() {
+    assertBand(1, encode(resource(1), Parameters.create(), coverage(BANDS)));
+  }
+
+  @Test
+  void wcsPath() {
+    var parameters = parameters(Map.of(RasterAdapter.BAND_PARAM, 1));
+    var adapted =
+        RasterEncoder.INSTANCE.adaptCoverage(coverage(BANDS), grid(), new InterpolationNearest());
+    assertBand(1, encode(resource(1), parameters, adapted));
+  }
+
+  @Test
+  void stacPath() {
+    // as StacResource.Collection.getCoverage does with the band of the resource
+    var selected =
+        (GridCoverage2D) Operations.DEFAULT.selectSampleDimension(coverage(BANDS), new int[] {1});
+    assertEquals(1, selected.getNumSampleDimensions());
+    assertBand(1, encode(resource(1), StacAdapter.selectedBand(Parameters.create()), selected));
+  }
+
+  @Test
+  void missingBandIsReported() {
+    assertThrows(
+        KlabValidationException.class,
+        () -> encode(resource(1), Parameters.create(), coverage(1)));
+  }
+
+  private static Recorder encode(
+      Resource resource, Parameters<String> urnParameters, GridCoverage coverage) {
+    Recorder ret =
+        mock(
+            Recorder.class,
+            withSettings().mockMaker(MockMakers.SUBCLASS).defaultAnswer(RETURNS_DEFAULTS));
+    ret.values = new double[WIDTH * HEIGHT];
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        resource,
+        urnParameters,
+        coverage,
+        grid(),
+        ret,
+        null,
+        RasterEncoder.EncodingMode.SEQUENTIAL);
+    return ret;
+  }
+
+  /** With no shard the storage is filled in D2_XY order. */
+  private static void assertBand(int band, Recorder recorder) {
+    assertEquals(WIDTH * HEIGHT, recorder.position);
+    for (int i = 0; i < WIDTH * HEIGHT; i++) {
+      assertEquals(value(band, i / HEIGHT, i % HEIGHT), recorder.values[i], "cell " + i);
+    }
+  }
+
+  /** Records the values written, in order. */
+  public abstract static class Recorder implements Storage.DoubleScanner {
+
+    public double[] values;
+    public int position;
+
+    @Override
+    public final void add(double value) {
+      values[position++] = value;
+    }
+  }
+
+  private static double value(int band, int x, int y) {
+    return 1000 * (band + 1) + y * WIDTH + x;
+  }
+
+  private static Resource resource(int band) {
+    Resource ret = mock(Resource.class);
+    when(ret.getUrn()).thenReturn("test:raster:bands");
+    when(ret.getParameters()).thenReturn(parameters(Map.of(RasterAdapter.BAND_PARAM, band)));
+    when(ret.getMetadata()).thenReturn(Parameters.create());
+    return ret;
+  }
+
+  private static Parameters<String> parameters(Map<String, Object> values) {
+    Parameters<String> ret = Parameters.create();
+    ret.putAll(values);
+    return ret;
+  }
+
+  private static Geometry grid() {
+    return Geometry.create(
+        "S2(" + WIDTH + "," + HEIGHT + "){bbox=[-111.5 -111.3 40.0 40.1],proj=EPSG:4326}");
+  }
+
+  private static GridCoverage2D coverage(int bands) {
+    SampleModel sampleModel =
+        RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, WIDTH, HEIGHT, bands);
+    TiledImage image =
+        new TiledImage(
+            0, 0, WIDTH, HEIGHT, 0, 0, sampleModel, PlanarImage.createColorModel(sampleModel));
+    for (int b = 0; b < bands; b++) {
+      for (int y = 0; y < HEIGHT; y++) {
+        for (int x = 0; x < WIDTH; x++) {
+          image.setSample(x, y, b, value(b, x, y));
+        }
+      }
+    }
+    try {
+      return new GridCoverageFactory()
+          .create(
+              "bands",
+              image,
+              new ReferencedEnvelope(-111.5, -111.3, 40.0, 40.1, CRS.decode("EPSG:4326", true)));
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
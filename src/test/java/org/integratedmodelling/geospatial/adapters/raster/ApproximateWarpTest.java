@@ -0,0 +1,92 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.imagen.Interpolation;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.RasterFactory;
+import org.eclipse.imagen.TiledImage;
+import org.geotools.coverage.NoDataContainer;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.util.CoverageUtilities;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ApproximateWarpTest {
+
+  private static final double NODATA = -9999;
+  private static final int SIZE = 40;
+  private static final int BORDER = 3;
+
+  /** Valid values are in [MIN_VALID, MIN_VALID + 2 * SIZE). */
+  private static final double MIN_VALID = 100;
+
+  @ParameterizedTest
+  @ValueSource(ints = {Interpolation.INTERP_BILINEAR, Interpolation.INTERP_BICUBIC})
+  void nodataIsNotBlendedIntoValidCells(int interpolation) {
+    // UTM 12N over the geographic source, covering its nodata border
+    var grid =
+        GridContext.of(
+            Geometry.create(
+                "S2(60,60){bbox=[459000 541000 4429000 4537000],proj=EPSG:32612}"));
+    var warped =
+        ApproximateWarp.warp(
+            borderedCoverage(), grid, Interpolation.getInstance(interpolation), 0.125);
+
+    Raster data = warped.getRenderedImage().getData();
+    int valid = 0;
+    for (int y = data.getMinY(); y < data.getMinY() + data.getHeight(); y++) {
+      for (int x = data.getMinX(); x < data.getMinX() + data.getWidth(); x++) {
+        double value = data.getSampleDouble(x, y, 0);
+        if (value == NODATA || Double.isNaN(value)) {
+          continue;
+        }
+        // bicubic may overshoot a little, but never towards the nodata value
+        assertTrue(
+            value > MIN_VALID - 10 && value < MIN_VALID + 2 * SIZE + 10,
+            "blended value " + value + " at " + x + "," + y);
+        valid++;
+      }
+    }
+    assertTrue(valid > 0, "no valid cells in the warped coverage");
+    assertTrue(CoverageUtilities.getNoDataProperty(warped) != null, "nodata not carried over");
+  }
+
+  /** A geographic raster over Utah with a nodata border and smooth values inside. */
+  private static GridCoverage2D borderedCoverage() {
+    SampleModel sampleModel =
+        RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, SIZE, SIZE, 1);
+    TiledImage image =
+        new TiledImage(
+            0, 0, SIZE, SIZE, 0, 0, sampleModel, PlanarImage.createColorModel(sampleModel));
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        boolean border = x < BORDER || y < BORDER || x >= SIZE - BORDER || y >= SIZE - BORDER;
+        image.setSample(x, y, 0, border ? NODATA : MIN_VALID + x + y);
+      }
+    }
+    Map<String, Object> properties = new HashMap<>();
+    CoverageUtilities.setNoDataProperty(properties, new NoDataContainer(NODATA));
+    try {
+      return new GridCoverageFactory()
+          .create(
+              "bordered",
+              image,
+              new ReferencedEnvelope(-111.5, -110.5, 40.0, 41.0, CRS.decode("EPSG:4326", true)),
+              null,
+              null,
+              properties);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
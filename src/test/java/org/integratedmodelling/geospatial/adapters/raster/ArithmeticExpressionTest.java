@@ -0,0 +1,123 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.lang.MissingMethodException;
+import groovy.lang.Script;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ArithmeticExpressionTest {
+
+  private static final double[] VALUES = {-7.25, -2, -0.5, 0, 0.25, 1, 3, 10.5};
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "self * 0.1",
+        "self + 1",
+        "-self**2",
+        "-2 ** 2",
+        "2**3**2",
+        "self / 2 ** 2",
+        "self ** -1",
+        "2 ** -self ** 2",
+        "-(self) ** 2 ** 3",
+        "self % 3",
+        "(self - 1) * (self + 1) / 4",
+        "1 / 2 * self",
+        "1e3 * self - 2.5d",
+        "Math.log(self + 10)",
+        "Math.sqrt(Math.abs(self))",
+        "Math.max(self, 2) - Math.min(self, 2)",
+        "Math.pow(self, 2) + Math.atan2(self, 1)",
+        "Math.round(self * 10) / 10",
+        "Math.PI * self + Math.E"
+      })
+  void matchesGroovy(String expression) {
+    var compiled = ArithmeticExpression.compile(expression, List.of("self"));
+    assertTrue(compiled.isPresent(), expression + " should compile");
+    Script script = new GroovyShell().parse(expression);
+    for (double value : VALUES) {
+      double expected = evaluate(script, value);
+      assertEquals(
+          expected,
+          compiled.get().applyAsDouble(value),
+          1e-12 * Math.max(1, Math.abs(expected)),
+          expression + " with self = " + value);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "-self**2",
+        "2**3**2 + self",
+        "self / 2 ** 2",
+        "Math.max(self % 3, Math.sin(self)) * -self"
+      })
+  void blockAndScalarPathsAgree(String expression) {
+    var compiled = ArithmeticExpression.compile(expression, List.of("self")).orElseThrow();
+    // more than one block
+    double[] plane = new double[2500];
+    for (int i = 0; i < plane.length; i++) {
+      plane[i] = (i - 1250) * 0.01;
+    }
+    double[] output = new double[plane.length];
+    compiled.evaluate(new double[][] {plane}, plane.length, output);
+    for (int i = 0; i < plane.length; i++) {
+      assertEquals(compiled.applyAsDouble(plane[i]), output[i], 0, expression + " at " + i);
+    }
+  }
+
+  @Test
+  void variablesAreBoundByPosition() {
+    var compiled =
+        ArithmeticExpression.compile("a * 2 - b ** 2 + Math.max(a, b)", List.of("a", "b"))
+            .orElseThrow();
+    assertEquals(2 * 3 - 16 + 4, compiled.evaluate(new double[] {0, 3, 4}, 1));
+    double[] output = new double[2];
+    compiled.evaluate(new double[][] {{1, 3}, {2, 4}}, 2, output);
+    assertEquals(2 - 4 + 2, output[0]);
+    assertEquals(6 - 16 + 4, output[1]);
+  }
+
+  @Test
+  void ternaryFallsBackToGroovy() {
+    String expression = "self > 0 ? self : 0";
+    assertFalse(ArithmeticExpression.compile(expression, List.of("self")).isPresent());
+    Script script = new GroovyShell().parse(expression);
+    assertEquals(0, evaluate(script, -3));
+    assertEquals(2.5, evaluate(script, 2.5));
+  }
+
+  @Test
+  void unqualifiedFunctionsAreRejectedAsInGroovy() {
+    String expression = "abs(self)";
+    assertFalse(ArithmeticExpression.compile(expression, List.of("self")).isPresent());
+    Script script = new GroovyShell().parse(expression);
+    assertThrows(MissingMethodException.class, () -> evaluate(script, -1));
+  }
+
+  @Test
+  void unknownNamesAndSyntaxAreRejected() {
+    for (String expression :
+        new String[] {"self + other", "Math.foo(self)", "self +", "(self", "self.abs()", ""}) {
+      assertFalse(
+          ArithmeticExpression.compile(expression, List.of("self")).isPresent(), expression);
+    }
+  }
+
+  private static double evaluate(Script script, double self) {
+    script.setBinding(new Binding());
+    script.getBinding().setVariable("self", self);
+    return ((Number) script.run()).doubleValue();
+  }
+}
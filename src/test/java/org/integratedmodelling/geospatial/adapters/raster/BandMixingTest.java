@@ -0,0 +1,90 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * The reducer in use matches the scalar reference. The vectorized one is only present in builds
+ * with the {@code vector} profile, which also start the test JVM with the incubator module.
+ */
+class BandMixingTest {
+
+  /** Not a multiple of any lane count, so the scalar tail runs too. */
+  private static final int LENGTH = 1003;
+
+  @ParameterizedTest
+  @EnumSource(BandMixing.Operation.class)
+  void vectorMatchesScalar(BandMixing.Operation operation) {
+    assumeVector();
+    SplittableRandom random = new SplittableRandom(operation.ordinal());
+    for (int bands : new int[] {1, 2, 3, 7}) {
+      double[][] planes = new double[bands][LENGTH];
+      for (double[] plane : planes) {
+        for (int i = 0; i < LENGTH; i++) {
+          plane[i] = random.nextDouble() < 0.2 ? Double.NaN : (random.nextDouble() - 0.5) * 1000;
+        }
+      }
+      assertSameReduction(operation, planes);
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(BandMixing.Operation.class)
+  void extremeValuesAndNodata(BandMixing.Operation operation) {
+    assumeVector();
+    double[] values = {
+      Double.NaN,
+      Double.MIN_VALUE,
+      -Double.MIN_VALUE,
+      Double.MAX_VALUE,
+      -Double.MAX_VALUE,
+      Double.POSITIVE_INFINITY,
+      Double.NEGATIVE_INFINITY,
+      1,
+      -1
+    };
+    // every pair of values, on every cell of a block, with a third band all nodata
+    double[][] planes = new double[3][LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      planes[0][i] = values[i % values.length];
+      planes[1][i] = values[(i / values.length) % values.length];
+      planes[2][i] = Double.NaN;
+    }
+    assertSameReduction(operation, planes);
+  }
+
+  @Test
+  void minValueSkipsNodataAndKeepsTheSmallest() {
+    double[][] planes = {
+      {Double.NaN, 3, Double.NaN, Double.MIN_VALUE},
+      {Double.NaN, Double.NaN, -2, 0},
+      {Double.NaN, 5, 4, -Double.MAX_VALUE}
+    };
+    double[] output = new double[4];
+    BandMixing.getReducer().reduce(BandMixing.Operation.MIN_VALUE, planes, 4, output);
+    assertArrayEquals(new double[] {Double.NaN, 3, -2, -Double.MAX_VALUE}, output);
+  }
+
+  private static void assertSameReduction(BandMixing.Operation operation, double[][] planes) {
+    double[] expected = new double[LENGTH];
+    double[] actual = new double[LENGTH];
+    new BandMixing.ScalarReducer().reduce(operation, planes, LENGTH, expected);
+    BandMixing.getReducer().reduce(operation, planes, LENGTH, actual);
+    for (int i = 0; i < LENGTH; i++) {
+      // sums of opposite infinities are NaN either way; the sign of a zero sum may differ
+      assertEquals(expected[i], actual[i], 0, operation + " with " + planes.length + " at " + i);
+    }
+  }
+
+  private static void assumeVector() {
+    assumeFalse(
+        BandMixing.getReducer() instanceof BandMixing.ScalarReducer,
+        "vectorized reducer not available");
+  }
+}
@@ -0,0 +1,92 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.RasterFactory;
+import org.eclipse.imagen.TiledImage;
+import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.image.ImageWorker;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.jupiter.api.Test;
+
+class CoverageCacheTest {
+
+  private static final int SIZE = 256;
+
+  @Test
+  void missesRecordTheMaterialization() {
+    var cache = new CoverageCache(64 * 1024, ForkJoinPool.commonPool());
+    var key = new CoverageCache.Key("test", 0, 0, "grid", "nearest");
+    var loads = new AtomicInteger();
+
+    var miss = EncodingMetrics.start("test");
+    GridCoverage first =
+        cache.get(
+            key,
+            () -> {
+              loads.incrementAndGet();
+              return lazyCoverage();
+            },
+            miss);
+    assertInstanceOf(TiledImage.class, first.getRenderedImage());
+    assertTrue(miss.getNanos(EncodingMetrics.Phase.MATERIALIZE) > 0);
+
+    var hit = EncodingMetrics.start("test");
+    assertSame(first, cache.get(key, CoverageCacheTest::lazyCoverage, hit));
+    assertEquals(0, hit.getNanos(EncodingMetrics.Phase.MATERIALIZE));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void coveragesOverTheEntryLimitAreStreamed() {
+    // the lazy coverage decodes to 512 KB
+    var cache = new CoverageCache(64 * 1024, 256, ForkJoinPool.commonPool());
+    var key = new CoverageCache.Key("test", 0, 0, "grid", "nearest");
+    var loads = new AtomicInteger();
+
+    for (int i = 0; i < 2; i++) {
+      var metrics = EncodingMetrics.start("test");
+      GridCoverage coverage =
+          cache.get(
+              key,
+              () -> {
+                loads.incrementAndGet();
+                return lazyCoverage();
+              },
+              metrics);
+      assertFalse(coverage.getRenderedImage() instanceof TiledImage, "computed into memory");
+      assertEquals(0, metrics.getNanos(EncodingMetrics.Phase.MATERIALIZE));
+    }
+    assertEquals(2, loads.get());
+  }
+
+  /** A coverage whose image is an operation chain, computed on demand. */
+  static GridCoverage lazyCoverage() {
+    SampleModel sampleModel =
+        RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, 64, 64, 1);
+    TiledImage image =
+        new TiledImage(
+            0, 0, SIZE, SIZE, 0, 0, sampleModel, PlanarImage.createColorModel(sampleModel));
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        image.setSample(x, y, 0, x + y);
+      }
+    }
+    return new GridCoverageFactory()
+        .create(
+            "lazy",
+            new ImageWorker(image).format(DataBuffer.TYPE_DOUBLE).getRenderedImage(),
+            new ReferencedEnvelope(0, 1, 0, 1, DefaultGeographicCRS.WGS84));
+  }
+}
@@ -0,0 +1,317 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.eclipse.imagen.InterpolationNearest;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.RasterFactory;
+import org.eclipse.imagen.TiledImage;
+import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.mockito.MockMakers;
+
+/**
+ * Every traversal of the grid writes, at each position of the storage, the source pixel of the
+ * cell that the fill curve maps it to; sequential and parallel encodes write the same cells in the
+ * same order. Grids are not multiples of the tile size, so the last stripes and blocks are partial.
+ */
+class EncodingModeTest {
+
+  private static final double[] BBOX = {-111.5, -110.5, 40.0, 41.0};
+  private static final int WIDTH = 300;
+  private static final int HEIGHT = 217;
+  private static final int TILE_SIZE = 64;
+
+  @TempDir static Path tiles;
+
+  /** Keep the tiles decoded from the test file out of the component cache directory. */
+  @BeforeAll
+  static void useTemporaryTileStore() {
+    RasterEncoder.INSTANCE.setTileStore(new TileStore(tiles.toFile(), 64L * 1024 * 1024));
+  }
+
+  @AfterAll
+  static void disableTileStore() {
+    RasterEncoder.INSTANCE.setTileStore(null);
+  }
+
+  /** Fill curves of the storage, each selecting one traversal of the encoder. */
+  enum Order {
+    COLUMNS,
+    ROWS,
+    MAPPED;
+
+    long[] offsets(long i, int xx, int yy) {
+      return switch (this) {
+        case COLUMNS -> new long[] {i / yy, i % yy};
+        case ROWS -> new long[] {i % xx, i / xx};
+        // columns from the right: neither of the above
+        case MAPPED -> new long[] {xx - 1 - i / yy, i % yy};
+      };
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(Order.class)
+  void alignedTiledCoverage(Order order) {
+    var geometry = grid(WIDTH, HEIGHT);
+    var coverage = syntheticCoverage();
+    assertEquals(GridAlignment.IDENTITY, alignment(coverage, geometry));
+    assertSourcePixels(coverage, geometry, order, assertSameOutput(coverage, geometry, order));
+  }
+
+  @ParameterizedTest
+  @EnumSource(Order.class)
+  void reprojectedFile(Order order) throws Exception {
+    var file = new File(getClass().getResource("/raster/utah_landcover.tif").toURI());
+    var geometry = grid(WIDTH, HEIGHT);
+    var coverage =
+        RasterEncoder.INSTANCE.adaptCoverage(
+            RasterEncoder.INSTANCE.readCoverage(file, GridContext.of(geometry).getGridGeometry()),
+            geometry,
+            new InterpolationNearest());
+    assertSourcePixels(coverage, geometry, order, assertSameOutput(coverage, geometry, order));
+
+    // integer samples of the land cover classes take the integer path
+    int[] sequential = encodeInts(coverage, geometry, order, RasterEncoder.EncodingMode.SEQUENTIAL);
+    int[] parallel = encodeInts(coverage, geometry, order, RasterEncoder.EncodingMode.PARALLEL);
+    assertArrayEquals(sequential, parallel);
+    assertSourcePixels(coverage, geometry, order, sequential);
+  }
+
+  /** The values of the sequential encode, once checked against the parallel one. */
+  private static double[] assertSameOutput(
+      GridCoverage coverage, Geometry geometry, Order order) {
+    var sequential = encode(coverage, geometry, order, RasterEncoder.EncodingMode.SEQUENTIAL);
+    var parallel = encode(coverage, geometry, order, RasterEncoder.EncodingMode.PARALLEL);
+    assertEquals(WIDTH * HEIGHT, sequential.position);
+    assertEquals(WIDTH * HEIGHT, parallel.position);
+    assertArrayEquals(sequential.values, parallel.values);
+    return sequential.values;
+  }
+
+  /**
+   * Output cell i holds the source pixel at the grid offsets the order maps i to, moved by the
+   * alignment of the grid on the coverage; nodata and pixels outside the image are NaN.
+   */
+  private static void assertSourcePixels(
+      GridCoverage coverage, Geometry geometry, Order order, double[] values) {
+    var alignment = alignment(coverage, geometry);
+    var nodata = NodataMatcher.create(resource(), Parameters.create(), coverage)[0];
+    Raster data = coverage.getRenderedImage().getData();
+    int valid = 0;
+    for (int i = 0; i < values.length; i++) {
+      long[] offsets = order.offsets(i, WIDTH, HEIGHT);
+      int x = (int) offsets[0] + alignment.dx();
+      int y = (int) offsets[1] + alignment.dy();
+      double expected =
+          data.getBounds().contains(x, y) ? data.getSampleDouble(x, y, 0) : Double.NaN;
+      if (nodata.matches(expected)) {
+        expected = Double.NaN;
+      } else {
+        valid++;
+      }
+      assertEquals(expected, values[i], "cell " + i + " at " + offsets[0] + "," + offsets[1]);
+    }
+    assertTrue(valid > 0, "no valid cells to compare");
+  }
+
+  /** As {@link #assertSourcePixels(GridCoverage, Geometry, Order, double[])} for integers. */
+  private static void assertSourcePixels(
+      GridCoverage coverage, Geometry geometry, Order order, int[] values) {
+    var alignment = alignment(coverage, geometry);
+    var nodata = NodataMatcher.create(resource(), Parameters.create(), coverage)[0];
+    Raster data = coverage.getRenderedImage().getData();
+    for (int i = 0; i < values.length; i++) {
+      long[] offsets = order.offsets(i, WIDTH, HEIGHT);
+      int x = (int) offsets[0] + alignment.dx();
+      int y = (int) offsets[1] + alignment.dy();
+      int expected =
+          data.getBounds().contains(x, y) ? data.getSample(x, y, 0) : CellWriter.INT_NODATA;
+      if (nodata.matches(expected)) {
+        expected = CellWriter.INT_NODATA;
+      }
+      assertEquals(expected, values[i], "cell " + i + " at " + offsets[0] + "," + offsets[1]);
+    }
+  }
+
+  /** The source pixel of grid cell (0, 0), as the encoder computes it. */
+  private static GridAlignment alignment(GridCoverage coverage, Geometry geometry) {
+    var ret =
+        GridAlignment.of(coverage.getGridGeometry(), GridContext.of(geometry).getGridGeometry());
+    return ret == null ? GridAlignment.IDENTITY : ret;
+  }
+
+  private static DoubleRecorder encode(
+      GridCoverage coverage, Geometry geometry, Order order, RasterEncoder.EncodingMode mode) {
+    DoubleRecorder ret = scanner(DoubleRecorder.class, geometry, order);
+    ret.values = new double[WIDTH * HEIGHT];
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        resource(), Parameters.create(), coverage, geometry, ret, null, mode);
+    return ret;
+  }
+
+  private static int[] encodeInts(
+      GridCoverage coverage, Geometry geometry, Order order, RasterEncoder.EncodingMode mode) {
+    IntRecorder ret = scanner(IntRecorder.class, geometry, order);
+    ret.values = new int[WIDTH * HEIGHT];
+    RasterEncoder.INSTANCE.encodeFromCoverage(
+        resource(), Parameters.create(), coverage, geometry, ret, null, mode);
+    assertEquals(WIDTH * HEIGHT, ret.position);
+    return ret.values;
+  }
+
+  /** Records the values written, in order. */
+  public abstract static class DoubleRecorder implements Storage.DoubleScanner {
+
+    public double[] values;
+    public int position;
+
+    @Override
+    public final void add(double value) {
+      values[position++] = value;
+    }
+  }
+
+  /** As {@link DoubleRecorder} for integer storage. */
+  public abstract static class IntRecorder implements Storage.IntScanner {
+
+    public int[] values;
+    public int position;
+
+    @Override
+    public final void add(int value) {
+      values[position++] = value;
+    }
+  }
+
+  /**
+   * A scanner over the geometry whose fill curve maps offsets in the passed order. The recorders
+   * are mocked with the subclass mock maker, which leaves their final add methods alone.
+   */
+  private static <T extends Storage.Scanner> T scanner(
+      Class<T> type, Geometry geometry, Order order) {
+    T ret =
+        mock(
+            type,
+            withSettings().mockMaker(MockMakers.SUBCLASS).defaultAnswer(RETURNS_DEEP_STUBS));
+    when(ret.shard().getGeometry()).thenReturn(geometry);
+    when(ret.shard().getShardingStrategy().getCurve())
+        .thenReturn(order == Order.COLUMNS ? Data.FillCurve.D2_XY : curve(order));
+    try {
+      long cells = (long) WIDTH * HEIGHT;
+      Object size =
+          type.getMethod("size").getReturnType() == long.class ? (Object) cells : (int) cells;
+      doReturn(size).when(ret).size();
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+    return ret;
+  }
+
+  /** A fill curve whose mapper to D2_XY returns the grid offsets of the passed order. */
+  private static Data.FillCurve curve(Order order) {
+    Method mapperTo =
+        Arrays.stream(Data.FillCurve.class.getMethods())
+            .filter(m -> m.getName().equals("mapperTo"))
+            .findFirst()
+            .orElseThrow();
+    Object mapper =
+        mock(
+            mapperTo.getReturnType(),
+            invocation ->
+                invocation.getMethod().getName().equals("offsets")
+                    ? order.offsets(
+                        ((Number) invocation.getArgument(0)).longValue(), WIDTH, HEIGHT)
+                    : RETURNS_DEFAULTS.answer(invocation));
+    return mock(
+        Data.FillCurve.class,
+        invocation ->
+            invocation.getMethod().getName().equals("mapperTo")
+                ? mapper
+                : RETURNS_DEFAULTS.answer(invocation));
+  }
+
+  private static Resource resource() {
+    Resource ret = mock(Resource.class);
+    when(ret.getUrn()).thenReturn("test:raster:encoding");
+    when(ret.getParameters()).thenReturn(Parameters.create());
+    when(ret.getMetadata()).thenReturn(Parameters.create());
+    return ret;
+  }
+
+  private static Geometry grid(int width, int height) {
+    return Geometry.create(
+        "S2("
+            + width
+            + ","
+            + height
+            + "){bbox=["
+            + BBOX[0]
+            + " "
+            + BBOX[1]
+            + " "
+            + BBOX[2]
+            + " "
+            + BBOX[3]
+            + "],proj=EPSG:4326}");
+  }
+
+  /** Random floats with some NaN, in tiles that do not divide the grid, over the grid's cells. */
+  private static GridCoverage syntheticCoverage() {
+    SampleModel sampleModel =
+        RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, TILE_SIZE, TILE_SIZE, 1);
+    TiledImage image =
+        new TiledImage(
+            0,
+            0,
+            WIDTH,
+            HEIGHT,
+            0,
+            0,
+            sampleModel,
+            PlanarImage.createColorModel(sampleModel));
+    SplittableRandom random = new SplittableRandom(42);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        image.setSample(x, y, 0, random.nextDouble() < 0.1 ? Float.NaN : random.nextDouble());
+      }
+    }
+    try {
+      var envelope =
+          new ReferencedEnvelope(
+              BBOX[0], BBOX[1], BBOX[2], BBOX[3], CRS.decode("EPSG:4326", true));
+      return new GridCoverageFactory().create("synthetic", image, envelope);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.api.referencing.datum.PixelInCell;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.AffineTransform2D;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class GridAlignmentTest {
+
+  private static final double CELL = 0.01;
+  private static final double WEST = -111.5;
+  private static final double NORTH = 41.0;
+
+  @Test
+  void sameGridIsIdentity() throws Exception {
+    assertEquals(
+        GridAlignment.IDENTITY,
+        GridAlignment.of(grid(WEST, NORTH, CELL, 0, wgs84()), grid(WEST, NORTH, CELL, 0, wgs84())));
+  }
+
+  @Test
+  void wholeCellOffset() throws Exception {
+    // target starts 3 columns right and 2 rows down of the source origin
+    var target = grid(WEST + 3 * CELL, NORTH - 2 * CELL, CELL, 0, wgs84());
+    assertEquals(
+        new GridAlignment(3, 2), GridAlignment.of(grid(WEST, NORTH, CELL, 0, wgs84()), target));
+    assertEquals(
+        new GridAlignment(-3, -2), GridAlignment.of(target, grid(WEST, NORTH, CELL, 0, wgs84())));
+  }
+
+  @ParameterizedTest
+  @ValueSource(doubles = {0.5, 0.25, 2.002, -0.002})
+  void subPixelOffsetIsNotAligned(double cells) throws Exception {
+    assertNull(
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST + cells * CELL, NORTH, CELL, 0, wgs84())));
+    assertNull(
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST, NORTH - cells * CELL, CELL, 0, wgs84())));
+  }
+
+  @ParameterizedTest
+  @ValueSource(doubles = {0.0005, -0.0005, 2.0009})
+  void offsetWithinToleranceIsRounded(double cells) throws Exception {
+    var alignment =
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST + cells * CELL, NORTH, CELL, 0, wgs84()));
+    assertEquals(new GridAlignment((int) Math.round(cells), 0), alignment);
+  }
+
+  @Test
+  void shearIsNotAligned() throws Exception {
+    assertNull(
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()), grid(WEST, NORTH, CELL, 1.0e-4, wgs84())));
+    assertNull(
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 1.0e-4, wgs84()), grid(WEST, NORTH, CELL, 0, wgs84())));
+  }
+
+  @Test
+  void differentCrsIsNotAligned() throws Exception {
+    // same numbers in another CRS
+    assertNull(
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST, NORTH, CELL, 0, CRS.decode("EPSG:4269", true))));
+  }
+
+  @Test
+  void equivalentCrsInstancesAreAligned() throws Exception {
+    assertEquals(
+        GridAlignment.IDENTITY,
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, CRS.decode("EPSG:4326", true)),
+            grid(WEST, NORTH, CELL, 0, CRS.decode("EPSG:4326", true))));
+  }
+
+  @Test
+  void cellSizeJustInsideToleranceIsAligned() throws Exception {
+    assertEquals(
+        GridAlignment.IDENTITY,
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST, NORTH, CELL * (1 + 0.9e-6), 0, wgs84())));
+    assertEquals(
+        GridAlignment.IDENTITY,
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST, NORTH, CELL * (1 - 0.9e-6), 0, wgs84())));
+  }
+
+  @Test
+  void cellSizeJustOutsideToleranceIsNotAligned() throws Exception {
+    assertNull(
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST, NORTH, CELL * (1 + 1.1e-6), 0, wgs84())));
+    assertNull(
+        GridAlignment.of(
+            grid(WEST, NORTH, CELL, 0, wgs84()),
+            grid(WEST, NORTH, CELL * (1 - 1.1e-6), 0, wgs84())));
+  }
+
+  private static CoordinateReferenceSystem wgs84() throws Exception {
+    return CRS.decode("EPSG:4326", true);
+  }
+
+  /**
+   * A 100x100 north-up grid with its upper left corner at (west, north), square cells and optional
+   * shear on both axes.
+   */
+  private static GridGeometry2D grid(
+      double west, double north, double cell, double shear, CoordinateReferenceSystem crs) {
+    return new GridGeometry2D(
+        new GridEnvelope2D(0, 0, 100, 100),
+        PixelInCell.CELL_CORNER,
+        new AffineTransform2D(cell, shear, shear, -cell, west, north),
+        crs,
+        null);
+  }
+}
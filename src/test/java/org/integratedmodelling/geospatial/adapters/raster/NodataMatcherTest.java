@@ -0,0 +1,129 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.Set;
+import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.integratedmodelling.geospatial.adapters.RasterAdapter;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+import org.junit.jupiter.api.Test;
+
+class NodataMatcherTest {
+
+  @Test
+  void compactIntegerSetsUseTheBitset() {
+    var matcher = NodataMatcher.of(Set.of(-9999.0, -9998.0, 0.0, 255.0), true);
+    assertTrue(matcher.usesBitset());
+    assertTrue(matcher.matches(-9999));
+    assertTrue(matcher.matches(0));
+    assertTrue(matcher.matches(255));
+    assertFalse(matcher.matches(1));
+    assertFalse(matcher.matches(256));
+    assertFalse(matcher.matches(-10000));
+    assertFalse(matcher.matches(-9998.5));
+
+    int[] samples = {-9999, 3, 0, 255, 7};
+    matcher.apply(samples, samples.length, CellWriter.INT_NODATA);
+    assertArrayEquals(
+        new int[] {CellWriter.INT_NODATA, 3, CellWriter.INT_NODATA, CellWriter.INT_NODATA, 7},
+        samples);
+  }
+
+  @Test
+  void sparseIntegerSetsUseTheArray() {
+    var matcher = NodataMatcher.of(Set.of(-32768.0, 65535.0), true);
+    assertFalse(matcher.usesBitset());
+    assertTrue(matcher.matches(-32768));
+    assertTrue(matcher.matches(65535));
+    assertFalse(matcher.matches(0));
+  }
+
+  @Test
+  void floatValuesMatchAtFloatPrecision() {
+    var matcher = NodataMatcher.of(Set.of(-9999.9, 1.5), false);
+    assertFalse(matcher.usesBitset());
+    assertTrue(matcher.matches(-9999.9));
+    // a float raster holds the declared value rounded to float
+    assertTrue(matcher.matches((float) -9999.9));
+    assertTrue(matcher.matches(1.5));
+    assertFalse(matcher.matches(-9999.8));
+
+    double[] samples = {(float) -9999.9, 2, 1.5};
+    matcher.apply(samples, samples.length);
+    assertTrue(Double.isNaN(samples[0]));
+    assertTrue(samples[1] == 2);
+    assertTrue(Double.isNaN(samples[2]));
+  }
+
+  @Test
+  void nonIntegralValuesDisableTheBitset() {
+    assertFalse(NodataMatcher.of(Set.of(0.0, 0.5), true).usesBitset());
+    assertFalse(NodataMatcher.of(Set.of(0.0, 1.0), false).usesBitset());
+  }
+
+  @Test
+  void extremeValuesAndNaNAreAlwaysNodata() {
+    var matcher = NodataMatcher.of(Set.of(), false);
+    assertTrue(matcher.matches(Double.NaN));
+    assertTrue(matcher.matches(1.0E36));
+    assertTrue(matcher.matches(-1.0E36));
+    assertTrue(matcher.matches(Double.POSITIVE_INFINITY));
+    assertTrue(matcher.matches(-Float.MAX_VALUE));
+    assertFalse(matcher.matches(1.0E35));
+    assertFalse(matcher.matches(-1.0E34));
+    assertFalse(matcher.matches(0));
+  }
+
+  @Test
+  void bothParameterSpellingsAreRead() {
+    var coverage = coverage(BufferedImage.TYPE_BYTE_GRAY);
+    var matchers =
+        NodataMatcher.create(
+            resource(Map.of("nodata", -9999)),
+            parameters(Map.of(RasterAdapter.NODATA_PARAM, " 255 ")),
+            coverage);
+    assertTrue(matchers.length == 1);
+    assertTrue(matchers[0].matches(-9999));
+    assertTrue(matchers[0].matches(255));
+    assertFalse(matchers[0].matches(0));
+
+    matchers =
+        NodataMatcher.create(
+            resource(Map.of(RasterAdapter.NODATA_PARAM, 7.5)),
+            parameters(Map.of("nodata", "not a number")),
+            coverage);
+    // the unparseable value is skipped
+    assertTrue(matchers[0].matches(7.5));
+    assertFalse(matchers[0].matches(0));
+  }
+
+  private static Resource resource(Map<String, Object> parameters) {
+    Resource ret = mock(Resource.class);
+    when(ret.getParameters()).thenReturn(parameters(parameters));
+    return ret;
+  }
+
+  private static Parameters<String> parameters(Map<String, Object> values) {
+    Parameters<String> ret = Parameters.create();
+    ret.putAll(values);
+    return ret;
+  }
+
+  private static GridCoverage coverage(int imageType) {
+    return new GridCoverageFactory()
+        .create(
+            "test",
+            new BufferedImage(4, 4, imageType),
+            new ReferencedEnvelope(0, 4, 0, 4, DefaultGeographicCRS.WGS84));
+  }
+}
@@ -0,0 +1,26 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.junit.jupiter.api.Test;
+
+class OverviewSelectorTest {
+
+  @Test
+  void readWindowsAreWidenedToWholeTiles() {
+    assertArrayEquals(new int[] {64, 192}, OverviewSelector.tiles(70.3, 150.2, 64, 1000));
+    assertArrayEquals(new int[] {0, 64}, OverviewSelector.tiles(0, 64, 64, 1000));
+  }
+
+  @Test
+  void windowsEndAtTheEdgeOfTheLevel() {
+    assertArrayEquals(new int[] {0, 50}, OverviewSelector.tiles(0, 10, 64, 50));
+    assertArrayEquals(new int[] {960, 1000}, OverviewSelector.tiles(970, 999.5, 64, 1000));
+  }
+
+  @Test
+  void roundingAtTileEdgesDoesNotAddTiles() {
+    assertArrayEquals(
+        new int[] {128, 192}, OverviewSelector.tiles(127.9999999, 192.0000001, 64, 1000));
+  }
+}
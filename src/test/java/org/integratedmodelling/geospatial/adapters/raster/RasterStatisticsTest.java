@@ -0,0 +1,180 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class RasterStatisticsTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+  @Test
+  void minMaxMeanAndCounts() {
+    var statistics = new RasterStatistics();
+    statistics.add(new double[] {1, 2, Double.NaN, 3, 4}, 5);
+    assertEquals(1, statistics.getMin());
+    assertEquals(4, statistics.getMax());
+    assertEquals(2.5, statistics.getMean(), 1e-12);
+    assertEquals(Math.sqrt(1.25), statistics.getStandardDeviation(), 1e-12);
+    assertEquals(4, statistics.getCount());
+    assertEquals(1, statistics.getNodataCount());
+    assertEquals(0.2, statistics.getNodataFraction(), 1e-12);
+    assertEquals(4, Arrays.stream(statistics.getHistogram()).sum());
+  }
+
+  @Test
+  void integerValuesSkipTheNodataMarker() {
+    var statistics = new RasterStatistics();
+    statistics.add(new int[] {5, Integer.MIN_VALUE, 7, 9}, 4, Integer.MIN_VALUE);
+    assertEquals(5, statistics.getMin());
+    assertEquals(9, statistics.getMax());
+    assertEquals(3, statistics.getCount());
+    assertEquals(1, statistics.getNodataCount());
+  }
+
+  @Test
+  void onlyNodataLeavesStatisticsUndefined() {
+    var statistics = new RasterStatistics();
+    statistics.add(new double[] {Double.NaN, Double.NaN}, 2);
+    assertEquals(0, statistics.getCount());
+    assertEquals(2, statistics.getNodataCount());
+    assertTrue(Double.isNaN(statistics.getMin()));
+    assertTrue(Double.isNaN(statistics.getMean()));
+  }
+
+  @Test
+  void infinitiesAreNodata() {
+    var statistics = new RasterStatistics();
+    assertTimeoutPreemptively(
+        TIMEOUT,
+        () -> {
+          statistics.add(new double[] {1, 2, 3}, 3);
+          statistics.add(new double[] {4, Double.POSITIVE_INFINITY}, 2);
+          statistics.add(new double[] {Double.NEGATIVE_INFINITY, 0}, 2);
+          statistics.add(Double.POSITIVE_INFINITY);
+          statistics.add(Double.NEGATIVE_INFINITY);
+          statistics.add(Double.NaN);
+        });
+    assertEquals(0, statistics.getMin());
+    assertEquals(4, statistics.getMax());
+    assertEquals(5, statistics.getCount());
+    assertEquals(5, statistics.getNodataCount());
+    assertEquals(5, Arrays.stream(statistics.getHistogram()).sum());
+  }
+
+  @Test
+  void extremeFiniteValuesTerminate() {
+    var statistics = new RasterStatistics();
+    assertTimeoutPreemptively(
+        TIMEOUT,
+        () -> {
+          statistics.add(new double[] {1, 2}, 2);
+          statistics.add(new double[] {-Double.MAX_VALUE, Double.MAX_VALUE}, 2);
+          statistics.add(Double.MIN_VALUE);
+        });
+    assertEquals(-Double.MAX_VALUE, statistics.getMin());
+    assertEquals(Double.MAX_VALUE, statistics.getMax());
+    assertEquals(5, statistics.getCount());
+    assertEquals(5, Arrays.stream(statistics.getHistogram()).sum());
+  }
+
+  @Test
+  void rebinningKeepsExactCountsInRange() {
+    var statistics = new RasterStatistics(8);
+    statistics.add(new double[] {0, 1, 2, 3, 4, 5, 6, 7}, 8);
+    double width = statistics.getBinWidth();
+    // extend right, then left: each time bins are merged in pairs
+    statistics.add(new double[] {20}, 1);
+    statistics.add(new double[] {-30}, 1);
+    assertTrue(statistics.getBinWidth() >= 4 * width);
+    assertTrue(statistics.getHistogramOrigin() <= -30);
+    assertTrue(
+        statistics.getHistogramOrigin()
+                + statistics.getHistogram().length * statistics.getBinWidth()
+            > 20);
+    assertEquals(10, Arrays.stream(statistics.getHistogram()).sum());
+    assertEveryValueInItsBin(statistics, new double[] {0, 1, 2, 3, 4, 5, 6, 7, 20, -30});
+  }
+
+  @Test
+  void blockAndScalarPathsAgree() {
+    SplittableRandom random = new SplittableRandom(7);
+    double[] values = new double[10_000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextDouble() < 0.1 ? Double.NaN : random.nextGaussian() * 100;
+    }
+    var blocks = new RasterStatistics();
+    for (int i = 0; i < values.length; i += 1000) {
+      blocks.add(Arrays.copyOfRange(values, i, i + 1000), 1000);
+    }
+    var scalar = new RasterStatistics();
+    for (double value : values) {
+      scalar.add(value);
+    }
+    assertEquals(scalar.getCount(), blocks.getCount());
+    assertEquals(scalar.getNodataCount(), blocks.getNodataCount());
+    assertEquals(scalar.getMin(), blocks.getMin());
+    assertEquals(scalar.getMax(), blocks.getMax());
+    assertEquals(scalar.getMean(), blocks.getMean(), 1e-9);
+    assertEveryValueInItsBin(blocks, values);
+  }
+
+  @Test
+  void mergeAddsCounts() {
+    var left = new RasterStatistics();
+    left.add(new double[] {1, 2, 3, Double.NaN}, 4);
+    var right = new RasterStatistics();
+    right.add(new double[] {100, 200}, 2);
+    left.merge(right);
+    assertEquals(1, left.getMin());
+    assertEquals(200, left.getMax());
+    assertEquals(5, left.getCount());
+    assertEquals(1, left.getNodataCount());
+    assertEquals(5, Arrays.stream(left.getHistogram()).sum());
+  }
+
+  @Test
+  void restoredStatisticsMatchTheOriginal() {
+    var statistics = new RasterStatistics();
+    statistics.add(new double[] {1, 2, 3, 4, Double.NaN}, 5);
+    var restored =
+        RasterStatistics.of(
+            statistics.getMin(),
+            statistics.getMax(),
+            statistics.getMean(),
+            statistics.getStandardDeviation(),
+            statistics.getHistogramOrigin(),
+            statistics.getBinWidth(),
+            statistics.getHistogram(),
+            statistics.getNodataCount());
+    assertEquals(statistics.getCount(), restored.getCount());
+    assertEquals(statistics.getMean(), restored.getMean(), 1e-12);
+    assertEquals(statistics.getStandardDeviation(), restored.getStandardDeviation(), 1e-9);
+    assertEquals(statistics.getNodataFraction(), restored.getNodataFraction(), 1e-12);
+  }
+
+  /** The histogram, rebuilt from the values with the final bin layout, matches the streamed one. */
+  private static void assertEveryValueInItsBin(RasterStatistics statistics, double[] values) {
+    long[] expected = new long[statistics.getHistogram().length];
+    for (double value : values) {
+      if (Double.isFinite(value)) {
+        int bin =
+            (int)
+                ((value - statistics.getHistogramOrigin()) / statistics.getBinWidth());
+        expected[Math.max(0, Math.min(bin, expected.length - 1))]++;
+      }
+    }
+    long[] actual = statistics.getHistogram();
+    long difference = 0;
+    for (int i = 0; i < expected.length; i++) {
+      difference += Math.abs(expected[i] - actual[i]);
+    }
+    // rounding at bin edges may move a value into the neighbouring bin after rebinning
+    assertTrue(difference <= values.length / 100 + 2, "histogram differs by " + difference);
+  }
+}
@@ -0,0 +1,121 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.eclipse.imagen.ImageLayout;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.RasterFactory;
+import org.eclipse.imagen.TiledImage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TileStoreTest {
+
+  private static final int TILE = 64;
+
+  @TempDir Path directory;
+
+  @Test
+  void overlappingWindowsShareTiles() {
+    var store = new TileStore(directory.toFile(), 1 << 30);
+
+    // columns [0, 128) and [64, 192) of a level: the second tile of the first window is the
+    // first tile of the second
+    var first = new CountingImage(window(0, 128));
+    var second = new CountingImage(window(64, 128));
+    var storedFirst = new StoredTileImage(first, store, "file", 0, 0, 0);
+    var storedSecond = new StoredTileImage(second, store, "file", 0, 1, 0);
+
+    storedFirst.getTile(1, 0);
+    assertEquals(1, first.tiles);
+
+    Raster shared = storedSecond.getTile(0, 0);
+    assertEquals(0, second.tiles, "the shared tile was decoded again");
+    for (int y = 0; y < TILE; y++) {
+      for (int x = 0; x < TILE; x++) {
+        assertEquals(value(64 + x, y), shared.getSample(x, y, 0));
+      }
+    }
+
+    // a different level has its own tiles
+    var otherLevel = new CountingImage(window(64, 128));
+    new StoredTileImage(otherLevel, store, "file", 1, 1, 0).getTile(0, 0);
+    assertEquals(1, otherLevel.tiles);
+  }
+
+  @Test
+  void evictionRemovesEmptyDirectories() throws Exception {
+    Raster tile = window(0, TILE).getTile(0, 0);
+    long tileSize = (long) TILE * TILE * 4 + 24;
+    var store = new TileStore(directory.toFile(), tileSize * 3 / 2);
+
+    assertTrue(store.put("first", 0, 0, tile));
+    assertEquals(1, directories());
+    assertTrue(store.put("second", 0, 0, tile));
+    assertEquals(1, directories(), "the directory of the evicted tile is still there");
+    assertNull(store.get("first", 0, 0, tile.getSampleModel(), new Point(0, 0)));
+    assertNotNull(store.get("second", 0, 0, tile.getSampleModel(), new Point(0, 0)));
+  }
+
+  @Test
+  void emptyDirectoriesAreRemovedOnStartup() throws Exception {
+    Files.createDirectories(directory.resolve("stale"));
+    new TileStore(directory.toFile(), 1 << 20);
+    assertEquals(0, directories());
+  }
+
+  private long directories() throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.map(Path::toFile).filter(File::isDirectory).count();
+    }
+  }
+
+  private static int value(int x, int y) {
+    return y * 1000 + x;
+  }
+
+  /** The window of a level starting at the passed column, with tiles starting at its origin. */
+  private static TiledImage window(int column, int width) {
+    SampleModel sampleModel =
+        RasterFactory.createBandedSampleModel(DataBuffer.TYPE_INT, TILE, TILE, 1);
+    TiledImage ret =
+        new TiledImage(
+            0, 0, width, TILE, 0, 0, sampleModel, PlanarImage.createColorModel(sampleModel));
+    for (int y = 0; y < TILE; y++) {
+      for (int x = 0; x < width; x++) {
+        ret.setSample(x, y, 0, value(column + x, y));
+      }
+    }
+    return ret;
+  }
+
+  /** Counts the tiles computed from the source. */
+  private static class CountingImage extends PlanarImage {
+
+    private final RenderedImage source;
+    int tiles;
+
+    CountingImage(RenderedImage source) {
+      super(new ImageLayout(source), null, null);
+      this.source = source;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+      tiles++;
+      return source.getTile(tileX, tileY);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package org.integratedmodelling.geospatial.adapters.raster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.function.LongFunction;
+import org.junit.jupiter.api.Test;
+
+class TraversalTest {
+
+  /** 2.5 billion cells, past the int range. */
+  private static final int XX = 50_000;
+
+  private static final int YY = 50_000;
+
+  @Test
+  void columnsOnGridsPastTheIntRange() {
+    assertTrue((long) XX * YY > Integer.MAX_VALUE);
+    assertEquals(
+        RasterEncoder.Traversal.COLUMNS,
+        RasterEncoder.Traversal.detect(checked(i -> new long[] {i / YY, i % YY}), XX, YY));
+  }
+
+  @Test
+  void rowsOnGridsPastTheIntRange() {
+    assertEquals(
+        RasterEncoder.Traversal.ROWS,
+        RasterEncoder.Traversal.detect(checked(i -> new long[] {i % XX, i / XX}), XX, YY));
+  }
+
+  @Test
+  void otherCurvesAreMapped() {
+    assertEquals(
+        RasterEncoder.Traversal.MAPPED,
+        RasterEncoder.Traversal.detect(
+            checked(i -> new long[] {XX - 1 - i / YY, i % YY}), XX, YY));
+  }
+
+  @Test
+  void noMapperMeansColumns() {
+    assertEquals(RasterEncoder.Traversal.COLUMNS, RasterEncoder.Traversal.detect(null, XX, YY));
+  }
+
+  /** A mapper that fails on offsets outside the grid, as a wrapped int would be. */
+  private static LongFunction<long[]> checked(LongFunction<long[]> mapper) {
+    return i -> {
+      assertTrue(i >= 0 && i < (long) XX * YY, "offset " + i + " outside the grid");
+      return mapper.apply(i);
+    };
+  }
+}
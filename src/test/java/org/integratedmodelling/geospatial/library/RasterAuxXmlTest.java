@@ -0,0 +1,113 @@
+package org.integratedmodelling.geospatial.library;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.integratedmodelling.geospatial.adapters.raster.RasterStatistics;
+import org.integratedmodelling.klab.api.exceptions.KlabIOException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RasterAuxXmlTest {
+
+  /** Cells in the histogram of the GDAL fixture, all of them valid. */
+  private static final long FIXTURE_CELLS = 99280;
+
+  @TempDir Path directory;
+
+  @Test
+  void writtenStatisticsReadBack() {
+    var statistics = new RasterStatistics();
+    statistics.add(new double[] {1, 2, 3, 4, 5.5, Double.NaN, Double.NaN}, 7);
+    var other = new RasterStatistics();
+    other.add(new int[] {10, 20, 30}, 3, Integer.MIN_VALUE);
+
+    var aux = new RasterAuxXml();
+    aux.setStatistics(1, statistics);
+    aux.setStatistics(2, other);
+    File file = directory.resolve("raster.tif.aux.xml").toFile();
+    aux.write(file);
+
+    var read = RasterAuxXml.read(file);
+    assertNotNull(read);
+    assertEquals(2, read.rasterBands.size());
+    assertSameStatistics(statistics, read.getStatistics(1, 7));
+    assertSameStatistics(other, read.getStatistics(2, 3));
+    assertNull(read.getStatistics(3, 7));
+  }
+
+  @Test
+  void readsTheGdalFixture() throws Exception {
+    var read = RasterAuxXml.read(fixture());
+    assertNotNull(read);
+    var statistics = read.getStatistics(1, FIXTURE_CELLS);
+    assertNotNull(statistics);
+    assertEquals(-2147483648, statistics.getMin());
+    assertEquals(16628313, statistics.getMax());
+    assertEquals(-576452083.01465, statistics.getMean(), 1e-3);
+    assertEquals(951650951.69479, statistics.getStandardDeviation(), 1e-2);
+    assertEquals(FIXTURE_CELLS, statistics.getCount());
+    assertEquals(0, statistics.getNodataCount());
+    long[] histogram = statistics.getHistogram();
+    assertEquals(256, histogram.length);
+    assertEquals(26650, histogram[0]);
+    assertEquals(FIXTURE_CELLS, Arrays.stream(histogram).sum());
+    assertEquals(-2147483648, statistics.getHistogramOrigin());
+    assertEquals((16628313.0 + 2147483648.0) / 256, statistics.getBinWidth(), 1e-6);
+  }
+
+  @Test
+  void rewritingKeepsWhatIsNotModeled() throws Exception {
+    File file = directory.resolve("copy.tif.aux.xml").toFile();
+    Files.copy(fixture().toPath(), file.toPath());
+    var aux = RasterAuxXml.read(file);
+    var statistics = new RasterStatistics();
+    statistics.add(new double[] {1, 2, 3}, 3);
+    aux.setStatistics(2, statistics);
+    aux.write(file);
+
+    String written = Files.readString(file.toPath());
+    assertTrue(written.contains("PyramidResamplingType"), written);
+    assertTrue(written.contains("DataType"), written);
+    var read = RasterAuxXml.read(file);
+    assertEquals(FIXTURE_CELLS, read.getStatistics(1, FIXTURE_CELLS).getCount());
+    assertSameStatistics(statistics, read.getStatistics(2, 3));
+  }
+
+  @Test
+  void missingFileReadsAsNull() {
+    assertNull(RasterAuxXml.read(directory.resolve("none.tif.aux.xml").toFile()));
+  }
+
+  @Test
+  void unparseableFileThrows() throws Exception {
+    Path file = directory.resolve("broken.tif.aux.xml");
+    Files.writeString(file, "<PAMDataset><PAMRasterBand band=\"1\">");
+    assertThrows(KlabIOException.class, () -> RasterAuxXml.read(file.toFile()));
+  }
+
+  private File fixture() throws Exception {
+    return new File(getClass().getResource("/raster/utah_landcover.tif.aux.xml").toURI());
+  }
+
+  private static void assertSameStatistics(RasterStatistics expected, RasterStatistics actual) {
+    assertNotNull(actual);
+    assertEquals(expected.getMin(), actual.getMin());
+    assertEquals(expected.getMax(), actual.getMax());
+    assertEquals(expected.getMean(), actual.getMean(), 1e-9);
+    assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), 1e-9);
+    assertEquals(expected.getCount(), actual.getCount());
+    assertEquals(expected.getNodataCount(), actual.getNodataCount());
+    assertEquals(expected.getHistogramOrigin(), actual.getHistogramOrigin(), 1e-9);
+    assertEquals(expected.getBinWidth(), actual.getBinWidth(), 1e-9);
+    assertArrayEquals(expected.getHistogram(), actual.getHistogram());
+  }
+}